@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import de.timroes.startplz.ipc.InstanceClient;
+import de.timroes.startplz.ipc.InstanceServer;
+import de.timroes.startplz.ipc.Protocol;
+import de.timroes.startplz.metrics.Metrics;
+import de.timroes.startplz.ui.PaintProbe;
+import de.timroes.startplz.ui.SearchFrame;
+import de.timroes.startplz.ui.StartupProbe;
+import de.timroes.startplz.ui.WarmUp;
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.swing.JFrame;
+
+/**
+ * The running instance of the application. This creates the UI and the single
+ * instance server, waiting for other invocations of the application.
+ * 
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class ApplicationInstance {
+	
+	private static SearchFrame singleInstanceFrame;
+	
+	/**
+	 * Starts the application instance. This should only be called, when no
+	 * other instance is running.
+	 * 
+	 * @param args The command line arguments.
+	 */
+	public static void start(String[] args) {
+		Log.d("No instance found running. Start a new instance.");
+		String query = InstanceClient.getSearchQuery(args);
+		boolean hidden = Arrays.asList(args).contains("--hidden") && query == null;
+		StartupProbe.installIfEnabled();
+		PaintProbe.get().addListener(new ShowLatencyListener());
+		createApplicationInstance(
+				!hidden,
+				Arrays.asList(args).contains("--closing"), 
+				query);
+		try {
+			new InstanceServer(new RequestHandler()).start();
+		} catch (IOException ex) {
+			Log.w("Could not start the single instance server. "
+					+ "The program won't run in background.", ex);
+			singleInstanceFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		}
+		// Nobody uses the hidden instance yet, so use the time to compile
+		// the search path before the first real search.
+		if(hidden && !Arrays.asList(args).contains("--no-warmup")) {
+			WarmUp.start();
+		}
+	}
+	
+	private static void createApplicationInstance(boolean showWindow, boolean shouldWindowClose,
+			String query) {
+		singleInstanceFrame = new SearchFrame();
+		singleInstanceFrame.setDefaultCloseOperation(
+				shouldWindowClose ? JFrame.EXIT_ON_CLOSE : JFrame.HIDE_ON_CLOSE);
+		if(showWindow) {
+			showApplicationInstance(query, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Shows the search window. The window has already been reset, when it has
+	 * been hidden, so this only needs to make it visible.
+	 * 
+	 * @param query The query to search for or {@code null} to show an empty window.
+	 * @param requested The {@link System#nanoTime()} showing the window has
+	 *		been requested at.
+	 */
+	private static void showApplicationInstance(String query, long requested) {
+		WarmUp.cancel();
+		if(singleInstanceFrame.isVisible()) {
+			singleInstanceFrame.toFront();
+		} else {
+			PaintProbe.get().expectPaint(PaintProbe.WINDOW, requested);
+			singleInstanceFrame.setVisible(true);
+		}
+		if(query != null) {
+			singleInstanceFrame.setQuery(query);
+		}
+	}
+	
+	/**
+	 * Logs how long it took from the request to show the window (e.g. by
+	 * pressing the hotkey) until the window has been painted.
+	 */
+	private static class ShowLatencyListener implements PaintProbe.Listener {
+
+		@Override
+		public void painted(String event, long start, long painted) {
+			if(PaintProbe.WINDOW.equals(event)) {
+				Log.d("Window shown %.1f ms after request.", (painted - start) / 1e6);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Handles the requests sent over the single instance channel.
+	 */
+	private static class RequestHandler implements InstanceServer.Handler {
+
+		/**
+		 * How many results of a query may wait to be written to the client.
+		 */
+		private final static int RESULT_BATCH_SIZE = 16;
+
+		@Override
+		public void handleRequest(Protocol.Frame request, final InstanceServer.Connection connection) {
+			switch(request.getOpcode()) {
+				case Protocol.SHOW:
+					Log.d("Another instance tried to start. Show the running instance.");
+					showOnEventQueue(null, System.nanoTime());
+					connection.send(new Protocol.Frame(Protocol.OK));
+					break;
+				case Protocol.SHOW_QUERY:
+					showOnEventQueue(request.getPayload(), System.nanoTime());
+					connection.send(new Protocol.Frame(Protocol.OK));
+					break;
+				case Protocol.HIDE:
+					EventQueue.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							singleInstanceFrame.setVisible(false);
+						}
+					});
+					connection.send(new Protocol.Frame(Protocol.OK));
+					break;
+				case Protocol.REFRESH:
+					ExecutionService.get().submit(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								PluginManager.get().refresh();
+								connection.send(new Protocol.Frame(Protocol.OK, "Refreshed all plugins."));
+							} catch(RuntimeException ex) {
+								Log.w("Refresh failed.", ex);
+								connection.send(new Protocol.Frame(Protocol.ERROR, 
+										"Refresh failed: " + ex.getMessage()));
+							}
+						}
+					});
+					break;
+				case Protocol.QUERY:
+					final String query = request.getPayload();
+					ExecutionService.get().submit(new Runnable() {
+						@Override
+						public void run() {
+							answerQuery(query, connection);
+						}
+					});
+					break;
+				case Protocol.STATS:
+					connection.send(new Protocol.Frame(Protocol.OK, Metrics.get().dump()));
+					break;
+				case Protocol.QUIT:
+					Log.d("Quit requested over single instance channel.");
+					connection.send(new Protocol.Frame(Protocol.OK), new Runnable() {
+						@Override
+						public void run() {
+							System.exit(0);
+						}
+					});
+					break;
+				default:
+					connection.send(new Protocol.Frame(Protocol.ERROR, 
+							"Unknown request " + request.getOpcode()));
+			}
+		}
+		
+		/**
+		 * Searches for a query and streams the results to the connection. Only
+		 * titles and subtitles are loaded, since no icons are needed here, and
+		 * only for the results, that are sent. The frames are only created as
+		 * fast as the client reads them.
+		 */
+		private void answerQuery(String query, InstanceServer.Connection connection) {
+			SearchResults results;
+			try {
+				results = PluginManager.get().search(query.trim());
+			} catch(RuntimeException ex) {
+				Log.w("Query failed.", ex);
+				connection.send(new Protocol.Frame(Protocol.ERROR, "Query failed: " + ex.getMessage()));
+				return;
+			}
+			int count = Math.min(results.size(), Protocol.MAX_QUERY_RESULTS);
+			for(int i = 0; i < count; i++) {
+				try {
+					if(i % RESULT_BATCH_SIZE == 0 && !connection.awaitPendingFrames(RESULT_BATCH_SIZE)) {
+						// The client is gone, so nobody will read the rest
+						return;
+					}
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				Result r = results.peek(i);
+				double weight = r.getWeight();
+				connection.send(new Protocol.Frame(Protocol.RESULT, Protocol.joinFields(
+						r.getPlugin().getClass().getSimpleName(),
+						String.valueOf(Double.isNaN(weight) || Double.isInfinite(weight) ? 0.0 : weight),
+						r.getDisplayTitle(),
+						r.getDisplaySubtitle())));
+			}
+			connection.send(new Protocol.Frame(Protocol.OK, String.valueOf(results.size())));
+		}
+		
+		private void showOnEventQueue(final String query, final long requested) {
+			EventQueue.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					showApplicationInstance(query, requested);
+				}
+			});
+		}
+		
+	}
+    
+}
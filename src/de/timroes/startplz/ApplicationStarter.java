@@ -15,124 +15,29 @@
  */
 package de.timroes.startplz;
 
-import de.timroes.startplz.ui.SearchFrame;
-import java.awt.Window;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Arrays;
-import javax.swing.JFrame;
+import de.timroes.startplz.ipc.InstanceClient;
 
 /**
+ * The entry point of the application. If an instance is already running, the
+ * command is only forwarded to it. This path must not touch any AWT, Swing,
+ * Guava or plugin classes, so it finishes as fast as the JVM allows. Only if no
+ * instance is running, a new {@link ApplicationInstance} will be started.
  *
  * @author Tim Roes <mail@timroes.de>
  */
 public class ApplicationStarter {
-    
-	private final static int SINGLE_INSTANCE_PORT = 27262;
-	private final static String SINGLE_INSTANCE_KEY = ApplicationStarter.class.getName().concat("\n");
-	
-	private static SearchFrame singleInstanceFrame;
 	
 	public static void main(String[] args) {
-	
-		if(isApplicationRunning()) {
-			
-		} else {
-			// If no other instance is running, start the application UI and the single
-			// instance server, waiting for other instances to run.
-			Log.d("No instance found running. Start a new instance.");
-			createApplicationInstance(
-					!Arrays.asList(args).contains("--hidden"),
-					Arrays.asList(args).contains("--closing"));
-			try {
-				startSingleInstanceServer();
-			} catch (IOException ex) {
-				Log.w("Could not start the single instance server. "
-						+ "The program won't run in background.", ex);
-				singleInstanceFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-			}
-		}
-		
-	}
-	
-	private static boolean isApplicationRunning() {
-		Socket clientSocket = null;
-		OutputStream out = null;
-		try {
-			clientSocket = new Socket(InetAddress.getByAddress(new byte[]{127, 0, 0, 1}), 
-					SINGLE_INSTANCE_PORT);
-			out = clientSocket.getOutputStream();
-			out.write(SINGLE_INSTANCE_KEY.getBytes());
-		} catch(IOException ex) {
-			Log.d("Could not found socket for running instance.", ex);
-			return false;
-		} finally {
-			try {
-				if(out != null) { out.close(); }
-			} catch (IOException ex) {
-				Log.w("Could not close socket to running instance.", ex);
-			}
-			try {
-				if(clientSocket != null) { clientSocket.close(); }
-			} catch(IOException ex) {
-				Log.w("Could not close socket to running instance.", ex);
+		int exitCode = InstanceClient.run(args);
+		if(exitCode == InstanceClient.NOT_RUNNING) {
+			if(InstanceClient.needsRunningInstance(args)) {
+				System.err.println("No running instance found.");
+				System.exit(1);
 			}
+			ApplicationInstance.start(args);
+		} else if(exitCode != 0) {
+			System.exit(exitCode);
 		}
-		return true;
-	}
-	
-	private static void createApplicationInstance(boolean showWindow, boolean shouldWindowClose) {
-		singleInstanceFrame = new SearchFrame();
-		singleInstanceFrame.setDefaultCloseOperation(
-				shouldWindowClose ? JFrame.EXIT_ON_CLOSE : JFrame.HIDE_ON_CLOSE);
-		if(showWindow) {
-			showApplicationInstance();
-		}
-	}
-	
-	private static void showApplicationInstance() {
-		singleInstanceFrame.setVisible(true);
-		singleInstanceFrame.clearInstance();
-	}
-
-	private static void startSingleInstanceServer() throws IOException {
-		final ServerSocket socket = new ServerSocket(SINGLE_INSTANCE_PORT, 10, 
-				InetAddress.getByAddress(new byte[]{127, 0, 0, 1}));
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				boolean closed = false;
-				while(!closed) {
-					if(socket.isClosed()) {
-						closed = true;
-					} else {
-						try {
-							// Wait for a new client (another instance started)
-							Socket client = socket.accept();
-							BufferedReader reader = new BufferedReader(
-									new InputStreamReader(client.getInputStream()));
-							String msg = reader.readLine();
-							if(SINGLE_INSTANCE_KEY.trim().equals(msg.trim())) {
-								Log.d("Another instance tried to start. Show the running instance.");
-								showApplicationInstance();
-							}
-							reader.close();
-							client.close();
-						} catch (IOException ex) {
-							Log.w("Single instance server socket error", ex);
-							closed = true;
-							singleInstanceFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-						}
-						
-					}
-				}
-			}
-		}, "SingleInstanceServer").start();
 	}
     
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import de.timroes.startplz.trace.ResultExecuteEvent;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes {@link Result Results} on a pool of worker threads, so that
+ * long running or blocking actions never block the UI. Every execution is
+ * limited to the timeout of its result ({@link Result#getExecutionTimeout()}).
+ * If it takes longer it will be interrupted. Registered {@link Listener Listeners}
+ * will be informed about finished and failed executions.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class ExecutionService {
+
+	//<editor-fold defaultstate="collapsed" desc="Singleton">
+	private static ExecutionService instance;
+
+	public static synchronized ExecutionService get() {
+		if(instance == null) {
+			instance = new ExecutionService();
+		}
+		return instance;
+	}
+	//</editor-fold>
+
+	private final static int MAX_WORKERS = 4;
+	private final static long WORKER_KEEP_ALIVE = 30;
+
+	private final static int RUNNING = 0;
+	private final static int DONE = 1;
+	private final static int TIMED_OUT = 2;
+
+	/**
+	 * Listener that will be informed about the outcome of executions.
+	 * The methods will be called from a worker thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a result has been executed successfully.
+		 *
+		 * @param result The executed result.
+		 */
+		void executionFinished(Result result);
+
+		/**
+		 * Called when the execution of a result failed or timed out.
+		 * In the latter case {@code cause} will be a {@link TimeoutException}.
+		 *
+		 * @param result The executed result.
+		 * @param cause The reason the execution failed.
+		 */
+		void executionFailed(Result result, Throwable cause);
+
+	}
+
+	private final ThreadPoolExecutor workers;
+	private final ScheduledThreadPoolExecutor watchdog;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private ExecutionService() {
+		workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS,
+				WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new NamedThreadFactory("ExecutionWorker"));
+		workers.allowCoreThreadTimeOut(true);
+		watchdog = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("ExecutionWatchdog"));
+		watchdog.setRemoveOnCancelPolicy(true);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Executes a result on a worker thread. This method returns immediately.
+	 *
+	 * @param result The result to execute.
+	 * @return The future of the execution.
+	 */
+	public Future<?> execute(final Result result) {
+
+		final AtomicInteger state = new AtomicInteger(RUNNING);
+		final AtomicReference<Future<?>> timeout = new AtomicReference<Future<?>>();
+
+		final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+			@Override
+			public void run() {
+				Throwable error = null;
+				ResultExecuteEvent event = new ResultExecuteEvent();
+				event.begin();
+				try {
+					result.execute();
+				} catch(Throwable ex) {
+					error = ex;
+				}
+				event.end();
+				if(event.shouldCommit()) {
+					event.plugin = (result.getPlugin() != null)
+							? result.getPlugin().getClass().getSimpleName() : null;
+					event.result = result.getDisplayTitle();
+					event.failed = (error != null);
+					event.commit();
+				}
+				// Don't keep the watchdog waiting, the execution is done.
+				Future<?> t = timeout.get();
+				if(t != null) {
+					t.cancel(false);
+				}
+				// Only report if the watchdog hasn't already reported a timeout.
+				if(state.compareAndSet(RUNNING, DONE)) {
+					if(error == null) {
+						fireFinished(result);
+					} else {
+						Log.w("Execution of result failed: " + result, error);
+						fireFailed(result, error);
+					}
+				}
+			}
+		}, null);
+
+		timeout.set(watchdog.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if(state.compareAndSet(RUNNING, TIMED_OUT)) {
+					task.cancel(true);
+					Log.w("Execution of result timed out: %s", result);
+					fireFailed(result, new TimeoutException(String.format(
+							"No response after %d seconds.",
+							TimeUnit.MILLISECONDS.toSeconds(result.getExecutionTimeout()))));
+				}
+			}
+		}, result.getExecutionTimeout(), TimeUnit.MILLISECONDS));
+
+		workers.execute(task);
+		return task;
+	}
+
+	/**
+	 * Runs a task on a worker thread. Other than {@link #execute(de.timroes.startplz.Result)}
+	 * the task has no timeout and listeners won't be informed about it.
+	 *
+	 * @param task The task to run.
+	 * @return The future of the task.
+	 */
+	public Future<?> submit(Runnable task) {
+		return workers.submit(task);
+	}
+
+	private void fireFinished(Result result) {
+		for(Listener l : listeners) {
+			l.executionFinished(result);
+		}
+	}
+
+	private void fireFailed(Result result, Throwable cause) {
+		for(Listener l : listeners) {
+			l.executionFailed(result, cause);
+		}
+	}
+
+	/**
+	 * A {@link ThreadFactory} creating named daemon threads.
+	 */
+	static class NamedThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+
+	}
+
+}
@@ -15,81 +15,517 @@
  */
 package de.timroes.startplz;
 
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.IllegalFormatException;
+import java.util.Locale;
 
 /**
+ * The logging facade of the application.
+ *
+ * Messages use {@link String#format(java.lang.String, java.lang.Object...)}
+ * placeholders. The level is checked before anything else happens, so a
+ * disabled log call costs nothing but the check (use the fixed arity methods
+ * to also avoid the varargs array). Enabled messages are only put into a ring
+ * buffer together with their arguments. A background thread formats them and
+ * writes them to a rotating log file, and warnings and errors to stderr, too.
+ * Since formatting happens later, arguments should not be changed after
+ * logging them. When the buffer is full, new records are dropped, except for
+ * errors: these replace the oldest record of a lower level, or are written
+ * by the logging thread itself, if there is none.
+ *
+ * The level is set with the system property {@code startplz.log.level}
+ * ({@code debug}, {@code warn}, {@code error} or {@code off}) and defaults to
+ * {@code warn}. The log file is {@code start-plz.log} in
+ * {@code $XDG_STATE_HOME/start-plz} (or {@code ~/.local/state/start-plz}).
  *
  * @author Tim Roes <mail@timroes.de>
  */
 public class Log {
-	
-	private static final Logger log = Logger.getLogger(Log.class.getPackage().toString());
 
-	{
-		log.setLevel(Level.FINEST);		
+	public final static int DEBUG = 0;
+	public final static int WARN = 1;
+	public final static int ERROR = 2;
+	public final static int OFF = 3;
+
+	private final static String[] LEVEL_NAMES = new String[] { "DEBUG", "WARN", "ERROR" };
+
+	private final static int BUFFER_SIZE = 1024;
+	/**
+	 * How long the writer collects records, before it writes them. Errors and
+	 * a buffer, that is half full, are written right away.
+	 */
+	private final static long FLUSH_INTERVAL = 500;
+	private final static long MAX_FILE_SIZE = 1024 * 1024;
+	private final static int MAX_FILES = 3;
+
+	private final static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT);
+
+	private final static int level = parseLevel(System.getProperty("startplz.log.level"));
+
+	//<editor-fold defaultstate="collapsed" desc="Ring buffer">
+	private final static Record[] buffer = new Record[BUFFER_SIZE];
+	private final static Object lock = new Object();
+	/** Index of the oldest record in the buffer. */
+	private static int head;
+	/** Number of records in the buffer. */
+	private static int count;
+	/** Number of records, that have been dropped, since the buffer was full. */
+	private static int dropped;
+	/** Whether the records should be written without waiting for more. */
+	private static boolean urgent;
+	private static Thread writerThread;
+	//</editor-fold>
+
+	private Log() { }
+
+	/**
+	 * @return Whether debug messages will be logged.
+	 */
+	public static boolean isDebugEnabled() {
+		return level <= DEBUG;
+	}
+
+	/**
+	 * @param l The level to check.
+	 * @return Whether messages of the level will be logged.
+	 */
+	public static boolean isEnabled(int l) {
+		return level <= l;
+	}
+
+	/**
+	 * Logs a debug message.
+	 *
+	 * @param msg The message to log.
+	 */
+	public static void d(String msg) {
+		if(level <= DEBUG) {
+			log(DEBUG, msg, null, null);
+		}
 	}
-	
+
 	/**
 	 * Logs a debug message.
-	 * 
+	 *
 	 * @param msg The message to log.
-	 * @param params Objects to fill in the placeholders.
+	 * @param p1 Object to fill in the placeholder.
 	 */
-	public static void d(String msg, Object... params) {
-		log.fine(String.format(msg, params));
+	public static void d(String msg, Object p1) {
+		if(level <= DEBUG) {
+			log(DEBUG, msg, new Object[] { p1 }, null);
+		}
 	}
-	
+
 	/**
 	 * Logs a debug message.
-	 * 
-	 * @param msg The mssage to log.
+	 *
+	 * @param msg The message to log.
+	 * @param p1 Object to fill in the first placeholder.
+	 * @param p2 Object to fill in the second placeholder.
 	 */
-	public static void d(String msg) {
-		d(msg, (Object[])null);
+	public static void d(String msg, Object p1, Object p2) {
+		if(level <= DEBUG) {
+			log(DEBUG, msg, new Object[] { p1, p2 }, null);
+		}
 	}
-	
+
 	/**
-	 * Logs a warning.
-	 * 
+	 * Logs a debug message.
+	 *
+	 * @param msg The message to log.
+	 * @param p1 Object to fill in the first placeholder.
+	 * @param p2 Object to fill in the second placeholder.
+	 * @param p3 Object to fill in the third placeholder.
+	 */
+	public static void d(String msg, Object p1, Object p2, Object p3) {
+		if(level <= DEBUG) {
+			log(DEBUG, msg, new Object[] { p1, p2, p3 }, null);
+		}
+	}
+
+	/**
+	 * Logs a debug message.
+	 *
 	 * @param msg The message to log.
 	 * @param params Objects to fill in the placeholders.
 	 */
-	public static void w(String msg, Object... params) {
-		log.warning(String.format(msg, params));
+	public static void d(String msg, Object... params) {
+		if(level <= DEBUG) {
+			log(DEBUG, msg, params, null);
+		}
 	}
-	
+
 	/**
 	 * Logs a warning.
-	 * 
+	 *
 	 * @param msg The message to log.
 	 */
 	public static void w(String msg) {
-		w(msg, (Object[])null);
+		if(level <= WARN) {
+			log(WARN, msg, null, null);
+		}
 	}
-	
-	public static void w(String msg, Throwable ex) {
-		w(msg);
-		w(String.valueOf(ex.getMessage()));
-		for(StackTraceElement e : ex.getStackTrace()) {
-			w(e.toString());
+
+	/**
+	 * Logs a warning.
+	 *
+	 * @param msg The message to log.
+	 * @param p1 Object to fill in the placeholder.
+	 */
+	public static void w(String msg, Object p1) {
+		if(level <= WARN) {
+			log(WARN, msg, new Object[] { p1 }, null);
 		}
 	}
-	
-	public static void e(String msg, Object... params) {
-		log.severe(String.format(msg, params));
+
+	/**
+	 * Logs a warning.
+	 *
+	 * @param msg The message to log.
+	 * @param params Objects to fill in the placeholders.
+	 */
+	public static void w(String msg, Object... params) {
+		if(level <= WARN) {
+			log(WARN, msg, params, null);
+		}
 	}
-	
+
+	/**
+	 * Logs a warning together with the stack trace of an exception.
+	 *
+	 * @param msg The message to log.
+	 * @param ex The exception that caused the warning.
+	 */
+	public static void w(String msg, Throwable ex) {
+		if(level <= WARN) {
+			log(WARN, msg, null, ex);
+		}
+	}
+
+	/**
+	 * Logs an error.
+	 *
+	 * @param msg The message to log.
+	 */
 	public static void e(String msg) {
-		e(msg, (Object[])null);
+		if(level <= ERROR) {
+			log(ERROR, msg, null, null);
+		}
+	}
+
+	/**
+	 * Logs an error.
+	 *
+	 * @param msg The message to log.
+	 * @param params Objects to fill in the placeholders.
+	 */
+	public static void e(String msg, Object... params) {
+		if(level <= ERROR) {
+			log(ERROR, msg, params, null);
+		}
 	}
-	
+
+	/**
+	 * Logs an error together with the stack trace of an exception.
+	 *
+	 * @param msg The message to log.
+	 * @param ex The exception that caused the error.
+	 */
 	public static void e(String msg, Throwable ex) {
-		e(msg);
-		e(ex.getMessage());
-		for(StackTraceElement e : ex.getStackTrace()) {
-			e(e.toString());
+		if(level <= ERROR) {
+			log(ERROR, msg, null, ex);
+		}
+	}
+
+	/**
+	 * Writes all buffered records. This blocks until they have been written.
+	 */
+	public static void flush() {
+		drain();
+	}
+
+	private static void log(int l, String msg, Object[] params, Throwable ex) {
+		Record record = new Record(System.currentTimeMillis(), l,
+				Thread.currentThread().getName(), msg, params, ex);
+		while(true) {
+			synchronized(lock) {
+				if(count < BUFFER_SIZE || (l >= ERROR && evictOldest(ERROR))) {
+					buffer[(head + count) % BUFFER_SIZE] = record;
+					count++;
+					if(writerThread == null) {
+						startWriter();
+					}
+					// Errors should show up as soon as possible
+					if(l >= ERROR || count > BUFFER_SIZE / 2) {
+						urgent = true;
+					}
+					if(count == 1 || urgent) {
+						lock.notifyAll();
+					}
+					return;
+				}
+				if(l < ERROR) {
+					dropped++;
+					return;
+				}
+			}
+			// The buffer is full of errors. Rather write them in this thread,
+			// than losing any of them.
+			drain();
+		}
+	}
+
+	/**
+	 * Drops the oldest record below a level from the buffer to make room for
+	 * a more important one. Must be called while holding the lock.
+	 *
+	 * @param l The level of the record, that needs the room.
+	 * @return Whether a record has been dropped.
+	 */
+	private static boolean evictOldest(int l) {
+		for(int i = 0; i < count; i++) {
+			if(buffer[(head + i) % BUFFER_SIZE].level < l) {
+				// Move the older records up into the gap
+				for(int j = i; j > 0; j--) {
+					buffer[(head + j) % BUFFER_SIZE] = buffer[(head + j - 1) % BUFFER_SIZE];
+				}
+				buffer[head] = null;
+				head = (head + 1) % BUFFER_SIZE;
+				count--;
+				dropped++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Writer">
+	private final static Object writeLock = new Object();
+	private static Writer fileWriter;
+	private static File logFile;
+	private static long fileSize;
+	private static boolean fileFailed;
+
+	private static void startWriter() {
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true) {
+					synchronized(lock) {
+						try {
+							// Sleep until there is something to write
+							while(count == 0 && dropped == 0) {
+								lock.wait();
+							}
+							// Then give more records the chance to arrive
+							long until = System.currentTimeMillis() + FLUSH_INTERVAL;
+							long remaining;
+							while(!urgent && (remaining = until - System.currentTimeMillis()) > 0) {
+								lock.wait(remaining);
+							}
+						} catch(InterruptedException ex) {
+							return;
+						}
+					}
+					drain();
+				}
+			}
+		}, "Log");
+		writerThread.setDaemon(true);
+		writerThread.setPriority(Thread.MIN_PRIORITY);
+		writerThread.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, "LogFlush"));
+	}
+
+	/**
+	 * Takes all records out of the buffer and writes them. The buffer is only
+	 * locked while taking the records, so logging threads never wait for the
+	 * formatting or the file.
+	 */
+	private static void drain() {
+		synchronized(writeLock) {
+			Record[] records;
+			int lost;
+			synchronized(lock) {
+				if(count == 0 && dropped == 0) {
+					return;
+				}
+				records = new Record[count];
+				for(int i = 0; i < count; i++) {
+					records[i] = buffer[(head + i) % BUFFER_SIZE];
+					buffer[(head + i) % BUFFER_SIZE] = null;
+				}
+				head = (head + count) % BUFFER_SIZE;
+				count = 0;
+				lost = dropped;
+				dropped = 0;
+				urgent = false;
+			}
+			write(records, lost);
 		}
 	}
-	
+
+	private static void write(Record[] records, int lost) {
+		StringBuilder out = new StringBuilder();
+		StringBuilder err = new StringBuilder();
+		for(Record r : records) {
+			String line = r.format();
+			out.append(line);
+			if(r.level >= WARN) {
+				err.append(line);
+			}
+		}
+		if(lost > 0) {
+			String line = String.format("%s WARN  [Log] %d log records dropped, because the buffer was full.%n",
+					formatTime(System.currentTimeMillis()), lost);
+			out.append(line);
+			err.append(line);
+		}
+
+		if(err.length() > 0) {
+			System.err.print(err);
+			System.err.flush();
+		}
+		writeToFile(out);
+	}
+
+	private static void writeToFile(CharSequence text) {
+		if(fileFailed) {
+			return;
+		}
+		try {
+			if(fileWriter == null) {
+				openFile();
+			} else if(fileSize > MAX_FILE_SIZE) {
+				rotate();
+			}
+			String s = text.toString();
+			fileWriter.write(s);
+			fileWriter.flush();
+			fileSize += s.length();
+		} catch(IOException ex) {
+			// Don't try again, just tell once, that there won't be a log file
+			fileFailed = true;
+			System.err.println("Could not write log file " + logFile + ": " + ex.getMessage());
+		}
+	}
+
+	private static void openFile() throws IOException {
+		String stateHome = System.getenv("XDG_STATE_HOME");
+		File dir = (stateHome != null && !stateHome.isEmpty())
+				? new File(stateHome, "start-plz")
+				: new File(System.getProperty("user.home"), ".local/state/start-plz");
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+		logFile = new File(dir, "start-plz.log");
+		fileSize = logFile.length();
+		fileWriter = new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Moves start-plz.log to start-plz.log.1, start-plz.log.1 to
+	 * start-plz.log.2 and so on, dropping the oldest file.
+	 */
+	private static void rotate() throws IOException {
+		fileWriter.close();
+		fileWriter = null;
+		for(int i = MAX_FILES - 1; i > 0; i--) {
+			File from = new File(logFile.getPath() + (i > 1 ? "." + (i - 1) : ""));
+			File to = new File(logFile.getPath() + "." + i);
+			if(from.exists()) {
+				to.delete();
+				from.renameTo(to);
+			}
+		}
+		openFile();
+	}
+
+	private static String formatTime(long time) {
+		// Only used while holding the write lock, so one instance is enough
+		return DATE_FORMAT.format(new Date(time));
+	}
+	//</editor-fold>
+
+	private static int parseLevel(String value) {
+		if(value == null) {
+			return WARN;
+		}
+		switch(value.trim().toLowerCase(Locale.ROOT)) {
+			case "debug":
+				return DEBUG;
+			case "warn":
+				return WARN;
+			case "error":
+				return ERROR;
+			case "off":
+				return OFF;
+			default:
+				return WARN;
+		}
+	}
+
+	/**
+	 * A log message, which hasn't been formatted yet.
+	 */
+	private static class Record {
+
+		final long time;
+		final int level;
+		final String thread;
+		final String msg;
+		final Object[] params;
+		final Throwable ex;
+
+		Record(long time, int level, String thread, String msg, Object[] params, Throwable ex) {
+			this.time = time;
+			this.level = level;
+			this.thread = thread;
+			this.msg = msg;
+			this.params = params;
+			this.ex = ex;
+		}
+
+		/**
+		 * Formats the record, including the stack trace of its exception.
+		 *
+		 * @return The formatted record ending with a line break.
+		 */
+		String format() {
+			String text;
+			try {
+				text = (params == null) ? msg : String.format(msg, params);
+			} catch(IllegalFormatException e) {
+				text = msg + " (invalid format: " + e.getMessage() + ")";
+			}
+			StringBuilder b = new StringBuilder();
+			b.append(formatTime(time)).append(' ')
+					.append(String.format("%-5s", LEVEL_NAMES[level]))
+					.append(" [").append(thread).append("] ")
+					.append(text).append(System.lineSeparator());
+			if(ex != null) {
+				StringWriter trace = new StringWriter();
+				ex.printStackTrace(new PrintWriter(trace));
+				b.append(trace);
+			}
+			return b.toString();
+		}
+
+	}
+
 }
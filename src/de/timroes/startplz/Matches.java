@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import java.util.List;
+
+/**
+ * The matches of a single plugin for a query. Plugins with a catalog of
+ * numbered entries only deliver the number and weight of every matching 
+ * entry, and the {@link Result} for an entry is only created, when it is
+ * displayed (see {@link SearchResults}). Other plugins deliver their results
+ * directly, see {@link #of(java.util.List)}.
+ * 
+ * Instances are immutable, so they can be cached and shared between threads.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class Matches {
+	
+	/**
+	 * Creates the results for the entries of a plugin. The entries must keep
+	 * their numbers as long as the catalog is used, so a plugin should create
+	 * a new catalog, when it is refreshed.
+	 */
+	public interface Catalog {
+		
+		/**
+		 * Creates the result for an entry. This is called from the thread,
+		 * that displays the result.
+		 * 
+		 * @param entry The number of the entry.
+		 * @param weight The weight of the entry for the query.
+		 * @return The result.
+		 */
+		Result createResult(int entry, double weight);
+		
+	}
+	
+	private final Plugin plugin;
+	private final Catalog catalog;
+	private final int[] entries;
+	private final double[] weights;
+	private final Result[] results;
+
+	/**
+	 * Creates the matches of entries of a catalog.
+	 * 
+	 * @param catalog The catalog, that creates the results of the entries.
+	 * @param hits The number and weight of every matching entry.
+	 */
+	public Matches(Catalog catalog, List<ParallelScan.Hit> hits) {
+		this.plugin = null;
+		this.catalog = catalog;
+		this.entries = new int[hits.size()];
+		this.weights = new double[hits.size()];
+		this.results = null;
+		for(int i = 0; i < entries.length; i++) {
+			ParallelScan.Hit hit = hits.get(i);
+			entries[i] = hit.index;
+			weights[i] = hit.score;
+		}
+	}
+	
+	private Matches(Plugin plugin, Catalog catalog, int[] entries, double[] weights, Result[] results) {
+		this.plugin = plugin;
+		this.catalog = catalog;
+		this.entries = entries;
+		this.weights = weights;
+		this.results = results;
+	}
+	
+	/**
+	 * Creates the matches of a plugin, that creates its results itself.
+	 * 
+	 * @param results The results.
+	 * @return The matches.
+	 */
+	public static Matches of(List<? extends Result> results) {
+		Result[] r = results.toArray(new Result[results.size()]);
+		double[] w = new double[r.length];
+		for(int i = 0; i < r.length; i++) {
+			w[i] = r[i].getWeight();
+		}
+		return new Matches(null, null, null, w, r);
+	}
+	
+	/**
+	 * Returns these matches as delivered by a plugin. Results created
+	 * from them will return the plugin from {@link Result#getPlugin()}.
+	 * 
+	 * @param plugin The plugin, that delivered the matches.
+	 * @return The matches of the plugin.
+	 */
+	Matches withPlugin(Plugin plugin) {
+		if(results != null) {
+			for(Result r : results) {
+				r.setPlugin(plugin);
+			}
+		}
+		return new Matches(plugin, catalog, entries, weights, results);
+	}
+	
+	/**
+	 * @return The plugin, that delivered the matches, or {@code null} if 
+	 *		they haven't been returned by the {@link PluginManager}.
+	 */
+	public Plugin getPlugin() {
+		return plugin;
+	}
+	
+	/**
+	 * @return The number of matches.
+	 */
+	public int size() {
+		return weights.length;
+	}
+	
+	/**
+	 * @param i The position of the match.
+	 * @return The weight of the match.
+	 */
+	public double getWeight(int i) {
+		return weights[i];
+	}
+	
+	/**
+	 * Returns a key, that orders matches of the same weight within these
+	 * matches. This is the number of the entry or the position of the result.
+	 * 
+	 * @param i The position of the match.
+	 * @return The order of the match between matches with the same weight.
+	 */
+	int getOrder(int i) {
+		return (entries != null) ? entries[i] : i;
+	}
+	
+	/**
+	 * Returns the result of a match. Results of catalog entries are created
+	 * anew on every call, so every caller owns them.
+	 * 
+	 * @param i The position of the match.
+	 * @return The result of the match.
+	 */
+	Result createResult(int i) {
+		if(results != null) {
+			return results[i];
+		}
+		Result r = catalog.createResult(entries[i], weights[i]);
+		r.setPlugin(plugin);
+		return r;
+	}
+	
+	/**
+	 * Checks whether two matches show the same result, without creating or
+	 * loading it. Entries are the same, if they have the same number in the
+	 * same catalog. Results created by the plugin are only the same, if they
+	 * are the same instance (e.g. if they have been cached).
+	 * 
+	 * @param i The position of the match.
+	 * @param other The other matches.
+	 * @param j The position of the other match.
+	 * @return Whether both matches show the same result.
+	 */
+	boolean isSame(int i, Matches other, int j) {
+		if(plugin != other.plugin) {
+			return false;
+		}
+		if(catalog != null) {
+			return catalog == other.catalog && entries[i] == other.entries[j];
+		}
+		return other.results != null && results[i] == other.results[j];
+	}
+	
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scores the entries of a large catalog in parallel and returns the best of
+ * them. Plugins with many entries can use this in their {@link Plugin#search(Query, BitSet, BitSet)}.
+ * 
+ * The entries are split into chunks of {@link #CHUNK_SIZE} consecutive
+ * entries, that are scored on the common {@link ForkJoinPool}. Every chunk
+ * keeps its own best entries, which are merged at the end. Catalogs with
+ * less than {@link #SEQUENTIAL_THRESHOLD} entries to score are scanned in the
+ * calling thread, since splitting them costs more than it saves. So are scans
+ * from threads below normal priority (e.g. the warm-up or the prefetch), 
+ * which shouldn't take more than their own thread.
+ * 
+ * The scan stops early, when the query is {@link Query#isCancelled() cancelled},
+ * and {@link Query#markIncomplete() marks} the query as incomplete then.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class ParallelScan {
+	
+	public final static int CHUNK_SIZE = 4096;
+	public final static int SEQUENTIAL_THRESHOLD = 4 * CHUNK_SIZE;
+	
+	/**
+	 * How many entries are scored between checks for cancellation.
+	 */
+	private final static int CANCEL_CHECK_INTERVAL = 1024;
+	
+	/**
+	 * Scores a single entry of the catalog. This is called from several
+	 * threads at once, so it must not modify shared state.
+	 */
+	public interface Scorer {
+		
+		/**
+		 * @param index The index of the entry.
+		 * @return The score of the entry or {@link Double#NaN} if it doesn't
+		 *		match the query.
+		 */
+		double score(int index);
+		
+	}
+	
+	/**
+	 * An entry, that matched the query.
+	 */
+	public final static class Hit {
+		
+		public final int index;
+		public final double score;
+
+		public Hit(int index, double score) {
+			this.index = index;
+			this.score = score;
+		}
+		
+	}
+	
+	private ParallelScan() { }
+	
+	/**
+	 * Scores the entries of a catalog and returns the ones with the highest score.
+	 * 
+	 * @param query The query. If it is cancelled, the entries, that have
+	 *		been scored so far, are returned.
+	 * @param size The number of entries in the catalog.
+	 * @param candidates The entries to score or {@code null} for all entries.
+	 * @param matched All matching entries will be set in this, even if they 
+	 *		aren't returned. May be {@code null}.
+	 * @param limit The maximum number of entries to return.
+	 * @return The matching entries with the highest scores, ordered by score.
+	 */
+	public static List<Hit> scan(Query query, int size, BitSet candidates, BitSet matched, 
+			int limit, Scorer scorer) {
+		int count = (candidates != null) ? candidates.cardinality() : size;
+		Chunk result;
+		if(count < SEQUENTIAL_THRESHOLD || Thread.currentThread().getPriority() < Thread.NORM_PRIORITY) {
+			result = new Chunk(query, 0, size, candidates, limit, scorer).compute();
+		} else {
+			result = ForkJoinPool.commonPool().invoke(new Chunk(query, 0, size, candidates, limit, scorer));
+		}
+		
+		if(matched != null) {
+			result.addMatchedTo(matched);
+		}
+		return result.top.toList();
+	}
+	
+	/**
+	 * Scores a range of the catalog. Ranges longer than {@link #CHUNK_SIZE}
+	 * are split in half and scored in parallel.
+	 */
+	private static class Chunk extends RecursiveTask<Chunk> {
+		
+		private final static long serialVersionUID = 1L;
+		
+		private final Query query;
+		private final int from;
+		private final int to;
+		private final BitSet candidates;
+		private final int limit;
+		private final Scorer scorer;
+		
+		// The results of this chunk, after it has been computed
+		private TopK top;
+		/** The matched entries, relative to {@link #from}. */
+		private BitSet matched;
+		/** The chunks this has been split into, if any. */
+		private Chunk left;
+		private Chunk right;
+
+		Chunk(Query query, int from, int to, BitSet candidates, int limit, Scorer scorer) {
+			this.query = query;
+			this.from = from;
+			this.to = to;
+			this.candidates = candidates;
+			this.limit = limit;
+			this.scorer = scorer;
+		}
+
+		@Override
+		protected Chunk compute() {
+			if(to - from > CHUNK_SIZE && getPool() != null) {
+				int middle = (from + to) >>> 1;
+				left = new Chunk(query, from, middle, candidates, limit, scorer);
+				right = new Chunk(query, middle, to, candidates, limit, scorer);
+				right.fork();
+				left.compute();
+				right.join();
+				top = left.top.merge(right.top);
+				return this;
+			}
+			
+			top = new TopK(limit);
+			matched = new BitSet();
+			int scored = 0;
+			int i = (candidates != null) ? candidates.nextSetBit(from) : from;
+			while(i >= 0 && i < to) {
+				if(++scored % CANCEL_CHECK_INTERVAL == 0 && query.isCancelled()) {
+					query.markIncomplete();
+					break;
+				}
+				double score = scorer.score(i);
+				if(!Double.isNaN(score)) {
+					matched.set(i - from);
+					top.add(i, score);
+				}
+				i = (candidates != null) ? candidates.nextSetBit(i + 1) : i + 1;
+			}
+			return this;
+		}
+		
+		void addMatchedTo(BitSet all) {
+			if(left != null) {
+				left.addMatchedTo(all);
+				right.addMatchedTo(all);
+				return;
+			}
+			for(int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+				all.set(from + i);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Keeps the entries with the highest scores in a min heap, so the worst of
+	 * them can be replaced cheaply. Scores and indexes are kept in arrays,
+	 * instead of an object per entry.
+	 */
+	private static class TopK {
+		
+		private final int limit;
+		private int size;
+		private int[] indexes;
+		private double[] scores;
+
+		TopK(int limit) {
+			this.limit = limit;
+			int capacity = Math.min(limit, 16);
+			indexes = new int[capacity];
+			scores = new double[capacity];
+		}
+		
+		void add(int index, double score) {
+			if(size < limit) {
+				if(size == indexes.length) {
+					int capacity = (int)Math.min(limit, 2L * size);
+					indexes = Arrays.copyOf(indexes, capacity);
+					scores = Arrays.copyOf(scores, capacity);
+				}
+				indexes[size] = index;
+				scores[size] = score;
+				siftUp(size++);
+			} else if(size > 0 && isWorse(indexes[0], scores[0], index, score)) {
+				indexes[0] = index;
+				scores[0] = score;
+				siftDown(0);
+			}
+		}
+		
+		TopK merge(TopK other) {
+			TopK into = (size >= other.size) ? this : other;
+			TopK from = (into == this) ? other : this;
+			for(int i = 0; i < from.size; i++) {
+				into.add(from.indexes[i], from.scores[i]);
+			}
+			return into;
+		}
+		
+		/**
+		 * @return The entries ordered descending by score.
+		 */
+		List<Hit> toList() {
+			Hit[] hits = new Hit[size];
+			// Take the worst entry from the heap until it is empty, filling the hits from the end
+			while(size > 0) {
+				hits[size - 1] = new Hit(indexes[0], scores[0]);
+				size--;
+				indexes[0] = indexes[size];
+				scores[0] = scores[size];
+				siftDown(0);
+			}
+			List<Hit> list = new ArrayList<Hit>(hits.length);
+			for(Hit h : hits) {
+				list.add(h);
+			}
+			return list;
+		}
+		
+		/**
+		 * Whether the first entry is ranked lower than the second. Equal
+		 * scores are ranked by index, so the result doesn't depend on the chunks.
+		 */
+		private static boolean isWorse(int index1, double score1, int index2, double score2) {
+			int cmp = Double.compare(score1, score2);
+			return (cmp != 0) ? cmp < 0 : index1 > index2;
+		}
+		
+		private void siftUp(int i) {
+			while(i > 0) {
+				int parent = (i - 1) >>> 1;
+				if(!isWorse(indexes[i], scores[i], indexes[parent], scores[parent])) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+		
+		private void siftDown(int i) {
+			while(true) {
+				int child = 2 * i + 1;
+				if(child >= size) {
+					break;
+				}
+				if(child + 1 < size && isWorse(indexes[child + 1], scores[child + 1], indexes[child], scores[child])) {
+					child++;
+				}
+				if(!isWorse(indexes[child], scores[child], indexes[i], scores[i])) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+		
+		private void swap(int i, int j) {
+			int index = indexes[i];
+			indexes[i] = indexes[j];
+			indexes[j] = index;
+			double score = scores[i];
+			scores[i] = scores[j];
+			scores[j] = score;
+		}
+		
+	}
+	
+}
@@ -17,9 +17,11 @@ package de.timroes.startplz;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  *
@@ -27,6 +29,12 @@ import java.util.List;
  */
 public abstract class Plugin {
 	
+	/**
+	 * A {@link #getCacheDuration() cache duration}, that keeps results cached
+	 * until the plugin is refreshed.
+	 */
+	public final static long CACHE_UNTIL_REFRESH = Long.MAX_VALUE;
+	
 	/**
 	 * Returns the highest similarity of a query to several strings. This method
 	 * will calculate the similarity between the query and each of the strings
@@ -44,6 +52,24 @@ public abstract class Plugin {
 		return Collections.max(weights);
 	}
 	
+	/**
+	 * Returns the highest similarity of a query to several strings. This is
+	 * much cheaper than {@link #getMaximumStringSimilarity(java.lang.String, java.lang.String[])},
+	 * since the letter pairs of the query are only computed once per query.
+	 * 
+	 * @param query The search query.
+	 * @param compareTo Several strings to compare {@code query} against. 
+	 *		These may be {@code null}.
+	 * @return The highest similarity of these.
+	 */
+	public final double getMaximumStringSimilarity(Query query, String... compareTo) {
+		double max = 0.0;
+		for(String s : compareTo) {
+			max = Math.max(max, query.similarity(s));
+		}
+		return max;
+	}
+	
 	/**
 	 * Calculates the similarity of two strings. The returning distance will be 
 	 * from 0.0 (nearly no similarity) up to 1.0. So this method can be used
@@ -78,6 +104,19 @@ public abstract class Plugin {
 		return (2.0 * intersection) / union;
 	}
 	
+	/**
+	 * Calculates the similarity of a query to a string, with the same algorithm
+	 * as {@link #getStringSimiliarity(java.lang.String, java.lang.String)}.
+	 * The query's text without the trigger prefix is compared.
+	 * 
+	 * @param query The search query.
+	 * @param str The string to compare the query to. May be {@code null}.
+	 * @return The similarity of the query and the string.
+	 */
+	public final double getStringSimiliarity(Query query, String str) {
+		return query.similarity(str);
+	}
+	
 	private String[] letterPairs(String str) {
 		int numPairs = str.length() - 1;
 		String[] pairs = new String[numPairs];
@@ -102,16 +141,127 @@ public abstract class Plugin {
 		return allPairs;
 	}
 	
-	public abstract List<? extends Result> search(String query);
+	/**
+	 * Searches the plugin for results of a query. The query is shared by all
+	 * plugins, so use its precomputed data (e.g. {@link Query#getText()} or
+	 * {@link #getMaximumStringSimilarity(de.timroes.startplz.Query, java.lang.String[])})
+	 * instead of normalizing the query yourself.
+	 * 
+	 * @param query The search query.
+	 * @return The results for that query.
+	 */
+	public abstract List<? extends Result> search(Query query);
+	
+	/**
+	 * Returns whether the plugin supports narrowing down its last results
+	 * with {@link #search(de.timroes.startplz.Query, java.util.BitSet, java.util.BitSet)}.
+	 * 
+	 * @return {@code false} by default.
+	 */
+	public boolean isRefinable() {
+		return false;
+	}
+	
+	/**
+	 * Searches only some entries of the plugin. This will only be called, if
+	 * {@link #isRefinable()} returns {@code true}.
+	 * 
+	 * The plugin numbers its entries from 0 and must keep these numbers until
+	 * its next {@link #refresh()}. Every entry, that matches the query, must
+	 * be set in {@code matched}, even if it won't be returned as a result.
+	 * An entry may only match, if it also matches every query, that the query's
+	 * text is part of (with the same prefix). The {@link PluginManager} passes 
+	 * the entries, that matched the previous query, as {@code candidates}, 
+	 * when the new query extends the previous one.
+	 * 
+	 * Plugins with many entries should return the matching entries with
+	 * {@link Matches#Matches(de.timroes.startplz.Matches.Catalog, java.util.List)},
+	 * so only the results, that are displayed, will be created.
+	 * By default this returns the results of {@link #search(de.timroes.startplz.Query)}.
+	 * 
+	 * @param query The search query.
+	 * @param candidates The entries to search or {@code null} to search all
+	 *		entries. This set must not be modified.
+	 * @param matched The set to add all matching entries to.
+	 * @return The matches for that query.
+	 */
+	public Matches search(Query query, BitSet candidates, BitSet matched) {
+		return Matches.of(search(query));
+	}
+	
+	/**
+	 * Returns the prefixes, that scope a query to this plugin (e.g. {@code m:}).
+	 * If a query starts with the prefix of any plugin, only the plugins
+	 * declaring that prefix will be searched. The prefix is available from
+	 * {@link Query#getPrefix()} and is not part of {@link Query#getText()}.
+	 * Prefixes are matched case insensitive.
+	 * 
+	 * @return The trigger prefixes in lower case. Empty by default.
+	 */
+	public Set<String> getTriggerPrefixes() {
+		return Collections.emptySet();
+	}
+	
+	/**
+	 * Checks whether a query might have results in this plugin, without
+	 * actually searching. This must be cheap, since it is called for every
+	 * query. Plugins, that don't accept a query, won't be searched for it.
+	 * 
+	 * @param query The search query.
+	 * @return Whether the plugin should be searched for the query. 
+	 *		{@code true} by default.
+	 */
+	public boolean accepts(Query query) {
+		return true;
+	}
+	
+	/**
+	 * Returns how long the results of a query may be reused for the same query,
+	 * instead of searching the plugin again. Cached results are always dropped,
+	 * when the plugin is refreshed. Only return a duration, if the results
+	 * only depend on the query and the data loaded by {@link #refresh()}.
+	 * 
+	 * @return The time in milliseconds or {@link #CACHE_UNTIL_REFRESH}. 
+	 *		By default 0, so results are never cached.
+	 */
+	public long getCacheDuration() {
+		return 0;
+	}
+	
+	/**
+	 * Returns whether the plugin can be searched at the moment. Plugins, that
+	 * depend on something, that might not be there (e.g. a server), should
+	 * return {@code false} as long as it is missing, instead of throwing
+	 * exceptions from {@link #search(de.timroes.startplz.Query)}. An unavailable 
+	 * plugin is skipped and {@link #refresh() refreshed} in the background 
+	 * with an increasing backoff, just like a plugin, whose searches failed.
+	 * This must be cheap, since it is called for every query.
+	 * 
+	 * @return {@code true} by default.
+	 */
+	public boolean isAvailable() {
+		return true;
+	}
+	
+	/**
+	 * Returns whether searching the plugin talks to other processes or hosts
+	 * (e.g. a server). Such plugins are left out of searches, that only
+	 * run to warm up the application (see {@link PluginManager#warmUp(java.lang.String)}).
+	 * 
+	 * @return {@code false} by default.
+	 */
+	public boolean usesNetwork() {
+		return false;
+	}
 	
 	/**
 	 * Refresh the data of your plugin. This will be called in intervals, so
 	 * every plugin can update it's data. You should update data in that method,
-	 * that takes too long to fetch directly in {@link #search(java.lang.String)}.
+	 * that takes too long to fetch directly in {@link #search(de.timroes.startplz.Query)}.
 	 * The method is also guaranteed to be called, when the program starts. So
 	 * you don't need to call it yourself from your constructor.
 	 * 
-	 * If you don't want this method to be run parallel to {@link #search(java.lang.String)}
+	 * If you don't want this method to be run parallel to {@link #search(de.timroes.startplz.Query)}
 	 * make sure to make both methods synchronized in your implementation.
 	 */
 	public void refresh() { }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker for a single plugin. A healthy plugin is searched on every
+ * query. After {@link #FAILURE_THRESHOLD} failed searches in a row (it threw
+ * an exception or missed the search deadline) it will be skipped for a
+ * while. After that time one trial search is let through: if it succeeds the
+ * plugin is healthy again, otherwise it will be skipped for twice as long as
+ * before (up to {@link #MAX_BACKOFF}). Being
+ * {@link Plugin#isAvailable() unavailable} counts as a failed search as well.
+ *
+ * Besides that, the health makes sure a plugin is never searched by more
+ * than one thread at a time. If its last search hasn't returned yet, the next
+ * search waits for it, but not longer than until its own deadline.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+class PluginHealth {
+
+	final static int FAILURE_THRESHOLD = 3;
+	final static long MIN_BACKOFF = 1000;
+	final static long MAX_BACKOFF = 60000;
+
+	enum State {
+		/** The plugin is healthy and will be searched. */
+		CLOSED,
+		/** The plugin failed and will be skipped until its backoff is over. */
+		OPEN,
+		/** The backoff is over and a trial search decides about the plugin. */
+		HALF_OPEN
+	}
+
+	private State state = State.CLOSED;
+	private int failures;
+	private long backoff = MIN_BACKOFF;
+	private long openUntil;
+	private boolean busy;
+
+	/**
+	 * Checks whether the plugin is healthy enough to be searched now. If its
+	 * backoff is over, this lets the trial search through.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Whether the plugin may be searched.
+	 */
+	synchronized boolean allowsSearch(long now) {
+		if(state == State.OPEN) {
+			if(now < openUntil) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the plugin as busy until {@link #release()} is called. If it is
+	 * busy already, this waits until it has been released.
+	 *
+	 * @param deadline The {@link System#nanoTime()} until which to wait.
+	 * @return Whether the plugin has been acquired before the deadline.
+	 * @throws InterruptedException If the thread has been interrupted while waiting.
+	 */
+	synchronized boolean acquire(long deadline) throws InterruptedException {
+		while(busy) {
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		busy = true;
+		return true;
+	}
+
+	/**
+	 * Marks the plugin as busy, no matter if it is healthy or not. This is used
+	 * to refresh a plugin, that has failed.
+	 *
+	 * @return Whether the plugin wasn't busy and has been acquired.
+	 */
+	synchronized boolean tryAcquireForRefresh() {
+		if(busy) {
+			return false;
+		}
+		busy = true;
+		return true;
+	}
+
+	/**
+	 * Marks the plugin as not busy anymore.
+	 */
+	synchronized void release() {
+		busy = false;
+		notifyAll();
+	}
+
+	/**
+	 * Records a successful search.
+	 *
+	 * @return Whether the plugin has been healthy again by this.
+	 */
+	synchronized boolean recordSuccess() {
+		failures = 0;
+		if(state == State.HALF_OPEN) {
+			state = State.CLOSED;
+			backoff = MIN_BACKOFF;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records a failed search.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Whether the plugin will be skipped from now on.
+	 */
+	synchronized boolean recordFailure(long now) {
+		failures++;
+		if(state == State.HALF_OPEN) {
+			backoff = Math.min(MAX_BACKOFF, backoff * 2);
+		} else if(state == State.OPEN || failures < FAILURE_THRESHOLD) {
+			return false;
+		}
+		state = State.OPEN;
+		openUntil = now + backoff;
+		return true;
+	}
+
+	synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The time in milliseconds the plugin will be skipped when it
+	 *		fails the next time.
+	 */
+	synchronized long getBackoff() {
+		return backoff;
+	}
+
+}
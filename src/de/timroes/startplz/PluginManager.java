@@ -18,13 +18,40 @@ package de.timroes.startplz;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.reflect.ClassPath;
 import com.google.common.reflect.ClassPath.ClassInfo;
+import de.timroes.startplz.metrics.Metrics;
+import de.timroes.startplz.metrics.PluginMetrics;
+import de.timroes.startplz.trace.MergeEvent;
+import de.timroes.startplz.trace.PluginRefreshEvent;
+import de.timroes.startplz.trace.PluginSearchEvent;
+import de.timroes.startplz.trace.SearchEvent;
+import de.timroes.startplz.trace.Trace;
+import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *
@@ -43,7 +70,36 @@ public class PluginManager {
 	}
 	//</editor-fold>
 	
+	/**
+	 * The time a plugin should need at most to search, in milliseconds.
+	 * Searches that take longer are counted as timeouts in the plugin's metrics.
+	 * Only missing the {@link #SEARCH_DEADLINE} counts as a failure in its health.
+	 */
+	public final static long SEARCH_BUDGET = 50;
+	
+	/**
+	 * The time in milliseconds a search waits for the plugins. Plugins that
+	 * haven't returned their results by then are left out of that search.
+	 */
+	public final static long SEARCH_DEADLINE = 100;
+	
+	/**
+	 * How many of the most likely next characters are prefetched after a search.
+	 */
+	public final static int PREFETCH_CHARACTERS = 3;
+	
 	private Set<Plugin> plugins;
+	private Map<String,List<Plugin>> prefixRoutes = Collections.emptyMap();
+	private final Metrics metrics = Metrics.get();
+	private final Map<Plugin,PluginHealth> health = new ConcurrentHashMap<Plugin,PluginHealth>();
+	private final Map<Plugin,Refinement> refinements = new ConcurrentHashMap<Plugin,Refinement>();
+	private final ResultCache cache = new ResultCache();
+	private final ExecutorService searchPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+			60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+			new ExecutionService.NamedThreadFactory("PluginSearch"));
+	private final ExecutorService prefetchPool = Executors.newSingleThreadExecutor(
+			new ExecutionService.NamedThreadFactory("Prefetch"));
+	private final AtomicReference<Prefetch> prefetch = new AtomicReference<Prefetch>();
 	
 	private PluginManager() {
 		loadPlugins();
@@ -62,43 +118,531 @@ public class PluginManager {
 	
 	/**
 	 * Search in all plugins for a specific search query.
-	 * Returns a list of results from all plugins ordered so that the first element
-	 * in the list if the best fitting result.
+	 * Returns the results from all plugins ordered so that the first element
+	 * is the best fitting result. All plugins are searched in parallel, but
+	 * only for up to {@link #SEARCH_DEADLINE} milliseconds. Plugins that failed
+	 * repeatedly are skipped for a while (see {@link PluginHealth}). Plugins
+	 * that allow it, are answered from the {@link ResultCache} if they have
+	 * been searched for the same query before. The results will only be created
+	 * page by page when accessed (see {@link SearchResults}).
+	 * 
+	 * @param query The search query.
+	 * @return The results ordered descending by relevance.
+	 */
+	public SearchResults search(String query) {
+		return search(query, Trace.nextQueryId());
+	}
+	
+	/**
+	 * Search in all plugins for a specific search query.
 	 * 
 	 * @param query The search query.
+	 * @param queryId The ID of the query, to correlate it with other trace events.
 	 * @return The results ordered descending by relevance.
+	 * @see #search(java.lang.String) 
 	 */
-	public List<Result> search(String query) {
-		List<Result> results = new LinkedList<Result>();
+	public SearchResults search(String query, long queryId) {
+		SearchEvent searchEvent = new SearchEvent();
+		searchEvent.begin();
 		
-		// Query all plugins for results
-		for(Plugin p : plugins) {
+		// A real query arrived, so the guesses aren't needed anymore
+		cancelPrefetch();
+		
+		// Start the search of all healthy plugins in parallel
+		long now = System.currentTimeMillis();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SEARCH_DEADLINE);
+		Map<String,List<Plugin>> routes = prefixRoutes;
+		String prefix = findPrefix(routes, query);
+		Query q = new Query(query, prefix, deadline, queryId);
+		Collection<Plugin> routed = (prefix != null) ? routes.get(prefix) : plugins;
+		String cacheKey = ResultCache.keyOf(q);
+		List<Matches> results = new ArrayList<Matches>();
+		List<PluginSearch> searches = new ArrayList<PluginSearch>(routed.size());
+		for(Plugin p : routed) {
+			if(!p.accepts(q)) {
+				continue;
+			}
+			if(p.getCacheDuration() > 0) {
+				Matches cached = cache.get(cacheKey, p, now);
+				if(cached != null) {
+					metrics.forPlugin(p.getClass()).recordCacheHit();
+					results.add(cached);
+					continue;
+				}
+			}
+			PluginHealth h = getHealth(p);
+			if(!h.allowsSearch(now)) {
+				continue;
+			}
+			if(!p.isAvailable()) {
+				// Nothing went wrong, but the plugin needs to recover
+				Log.d("%s is unavailable.", p.getClass().getSimpleName());
+				recordHealth(p, h, false);
+				continue;
+			}
+			PluginSearch search = new PluginSearch(p, h, q, cacheKey);
+			search.future = searchPool.submit(search);
+			searches.add(search);
+		}
+		
+		// Collect the results of all plugins, that finish before the deadline
+		for(PluginSearch search : searches) {
 			try {
-				results.addAll(p.search(query));
-			} catch(Exception ex) {
-				Log.w("Exception in plugin", ex);
+				long remaining = deadline - System.nanoTime();
+				results.add(search.future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS));
+			} catch(TimeoutException ex) {
+				search.timedOut();
+			} catch(ExecutionException ex) {
+				// The search catches all exceptions of the plugin itself
+				Log.w("Plugin search failed.", ex.getCause());
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
 			}
 		}
 		
-		// Sort results by weight
-		Collections.sort(results, new Comparator<Result>() {
-			@Override
-			public int compare(Result r1, Result r2) {
-				int weight = (int)Math.signum(r2.getWeight() - r1.getWeight());
-				if(weight != 0) {
-					return weight;
+		// Plugins, that are still searching, missed the deadline
+		q.cancel();
+		
+		// Sort results by weight. Ties are ordered by plugin and entry, since 
+		// that doesn't require to create the results.
+		MergeEvent mergeEvent = new MergeEvent();
+		mergeEvent.begin();
+		SearchResults sorted = new SearchResults(results);
+		mergeEvent.end();
+		if(mergeEvent.shouldCommit()) {
+			mergeEvent.queryId = queryId;
+			mergeEvent.resultCount = sorted.size();
+			mergeEvent.commit();
+		}
+		
+		searchEvent.end();
+		if(searchEvent.shouldCommit()) {
+			searchEvent.queryId = queryId;
+			searchEvent.query = query;
+			searchEvent.resultCount = sorted.size();
+			searchEvent.commit();
+		}
+		
+		return sorted;
+	}
+	
+	/**
+	 * Speculatively searches for the characters, the user will most likely
+	 * type next, while the results of the current query are being read.
+	 * The next characters are guessed from the characters following the query
+	 * in the titles of the first result page. The results are searched at low
+	 * priority in the background and put into the {@link ResultCache}, so
+	 * only cacheable plugins are prefetched. The prefetch is cancelled, as
+	 * soon as the next search starts.
+	 * 
+	 * This must be called from the thread, that displays the results, since
+	 * it loads their titles.
+	 * 
+	 * @param query The current query.
+	 * @param results The results of the current query.
+	 */
+	public void prefetch(String query, SearchResults results) {
+		cancelPrefetch();
+		String text = new Query(query, findPrefix(prefixRoutes, query), 0, 0).getText();
+		if(text.isEmpty()) {
+			return;
+		}
+		
+		// Count the characters following the query, more for better results
+		final Map<Character,Double> next = new HashMap<Character,Double>();
+		int count = Math.min(SearchResults.PAGE_SIZE, results.size());
+		for(int i = 0; i < count; i++) {
+			String title = results.peek(i).getDisplayTitle();
+			if(title == null) {
+				continue;
+			}
+			title = title.toLowerCase();
+			for(int pos = title.indexOf(text); pos >= 0; pos = title.indexOf(text, pos + 1)) {
+				int end = pos + text.length();
+				if(end < title.length() && !Character.isWhitespace(title.charAt(end))) {
+					Character c = title.charAt(end);
+					Double score = next.get(c);
+					next.put(c, ((score != null) ? score : 0.0) + 1.0 / (i + 1));
 				}
-				return r1.getTitle().compareTo(r2.getTitle());
+			}
+		}
+		if(next.isEmpty()) {
+			return;
+		}
+		
+		List<Character> likely = new ArrayList<Character>(next.keySet());
+		Collections.sort(likely, new Comparator<Character>() {
+			@Override
+			public int compare(Character c1, Character c2) {
+				return Double.compare(next.get(c2), next.get(c1));
 			}
 		});
+		List<String> queries = new ArrayList<String>(PREFETCH_CHARACTERS);
+		for(Character c : likely.subList(0, Math.min(PREFETCH_CHARACTERS, likely.size()))) {
+			queries.add(query + c);
+		}
 		
-		return results;
+		Prefetch p = new Prefetch(queries);
+		Prefetch old = prefetch.getAndSet(p);
+		if(old != null) {
+			old.cancel();
+		}
+		prefetchPool.execute(p);
+	}
+	
+	/**
+	 * Searches for a query only to warm up the search path, e.g. while the
+	 * application is started hidden. Unlike {@link #search(java.lang.String)}
+	 * this has no side effects: the search isn't recorded in the metrics, the
+	 * trace or the health of the plugins, and neither the {@link ResultCache}
+	 * nor the refinement state of the plugins are used or changed. Plugins
+	 * that {@link Plugin#usesNetwork() use the network} are left out.
+	 * 
+	 * The plugins are searched one after another in the calling thread, so
+	 * the warm-up can limit its CPU usage by throttling that thread.
+	 * 
+	 * @param query The search query.
+	 * @return The results ordered descending by relevance.
+	 */
+	public SearchResults warmUp(String query) {
+		Map<String,List<Plugin>> routes = prefixRoutes;
+		String prefix = findPrefix(routes, query);
+		Query q = new Query(query, prefix, 
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SEARCH_DEADLINE), 0);
+		List<Matches> results = new ArrayList<Matches>();
+		for(Plugin p : (prefix != null) ? routes.get(prefix) : plugins) {
+			if(p.usesNetwork() || !p.accepts(q)) {
+				continue;
+			}
+			try {
+				Matches found = p.isRefinable()
+						? p.search(q, null, new BitSet())
+						: Matches.of(p.search(q));
+				results.add(found.withPlugin(p));
+			} catch(Exception ex) {
+				Log.d("Warm-up search of %s failed: %s", p.getClass().getSimpleName(), ex);
+			}
+		}
+		return new SearchResults(results);
+	}
+	
+	private void cancelPrefetch() {
+		Prefetch p = prefetch.getAndSet(null);
+		if(p != null) {
+			p.cancel();
+		}
 	}
 	
 	public void refresh() {
 		for(Plugin p : plugins) {
+			refresh(p);
+		}
+	}
+	
+	private void refresh(Plugin p) {
+		PluginMetrics pluginMetrics = metrics.forPlugin(p.getClass());
+		PluginRefreshEvent event = new PluginRefreshEvent();
+		event.begin();
+		long start = System.nanoTime();
+		// The entries of the plugin might be numbered differently afterwards
+		// and its cached results might be outdated. Searches running during 
+		// the refresh can't rely on them either.
+		Refinement refinement = getRefinement(p);
+		refinement.invalidate();
+		cache.invalidate(p);
+		try {
 			p.refresh();
+		} catch(RuntimeException ex) {
+			pluginMetrics.recordException();
+			event.failed = true;
+			throw ex;
+		} finally {
+			refinement.invalidate();
+			cache.invalidate(p);
+			pluginMetrics.recordRefresh(System.nanoTime() - start);
+			event.end();
+			if(event.shouldCommit()) {
+				event.plugin = p.getClass().getSimpleName();
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the trigger prefix a query starts with. If the query starts with 
+	 * a prefix, only the plugins declaring it will be searched.
+	 * 
+	 * @param routes The plugins declaring each prefix.
+	 * @param query The search query.
+	 * @return The longest matching prefix or {@code null} if there is none.
+	 */
+	private static String findPrefix(Map<String,List<Plugin>> routes, String query) {
+		if(routes.isEmpty()) {
+			return null;
+		}
+		String lowerQuery = query.trim().toLowerCase();
+		String match = null;
+		for(String prefix : routes.keySet()) {
+			if(lowerQuery.startsWith(prefix) && (match == null || prefix.length() > match.length())) {
+				match = prefix;
+			}
+		}
+		return match;
+	}
+	
+	private PluginHealth getHealth(Plugin p) {
+		PluginHealth h = health.get(p);
+		if(h == null) {
+			PluginHealth created = new PluginHealth();
+			h = health.putIfAbsent(p, created);
+			if(h == null) {
+				h = created;
+			}
+		}
+		return h;
+	}
+	
+	private Refinement getRefinement(Plugin p) {
+		Refinement r = refinements.get(p);
+		if(r == null) {
+			Refinement created = new Refinement();
+			r = refinements.putIfAbsent(p, created);
+			if(r == null) {
+				r = created;
+			}
+		}
+		return r;
+	}
+	
+	/**
+	 * Records the outcome of a plugin's search in its health. If the plugin
+	 * will be skipped from now on, it is refreshed in the background, so it
+	 * can recover (e.g. reconnect) before it is tried again.
+	 */
+	private void recordHealth(final Plugin p, final PluginHealth h, boolean success) {
+		String name = p.getClass().getSimpleName();
+		if(success) {
+			if(h.recordSuccess()) {
+				Log.w("Plugin %s is healthy again.", name);
+			}
+			return;
+		}
+		boolean wasHealthy = h.getState() == PluginHealth.State.CLOSED;
+		if(!h.recordFailure(System.currentTimeMillis())) {
+			return;
+		}
+		if(wasHealthy) {
+			Log.w("Plugin %s failed repeatedly and will be skipped for %d ms.", name, h.getBackoff());
+		} else {
+			// Already told, that the plugin fails
+			Log.d("Plugin %s is still failing and will be skipped for %d ms.", name, h.getBackoff());
+		}
+		searchPool.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(!h.tryAcquireForRefresh()) {
+					// Still busy with its last search, so there is nothing we can do
+					return;
+				}
+				try {
+					refresh(p);
+				} catch(RuntimeException ex) {
+					Log.w("Refresh of failed plugin didn't succeed.", ex);
+				} finally {
+					h.release();
+				}
+			}
+		});
+	}
+	
+	private static long expiresAt(long now, long cacheDuration) {
+		return (cacheDuration >= Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + cacheDuration;
+	}
+	
+	/**
+	 * Searches some queries, the user might type next, and caches the results.
+	 * Only healthy, cacheable plugins are searched, that haven't cached the
+	 * query yet. The plugins are searched one after another on a single 
+	 * thread, so the prefetch never competes with the real searches for more
+	 * than one core. The refinement state of the plugins isn't changed, since
+	 * the user might type something else.
+	 */
+	private class Prefetch implements Runnable {
+		
+		private final List<String> queries;
+		private volatile boolean cancelled;
+		private volatile Query current;
+
+		Prefetch(List<String> queries) {
+			this.queries = queries;
+		}
+		
+		void cancel() {
+			cancelled = true;
+			Query q = current;
+			if(q != null) {
+				q.cancel();
+			}
+		}
+
+		@Override
+		public void run() {
+			Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+			for(String raw : queries) {
+				Map<String,List<Plugin>> routes = prefixRoutes;
+				String prefix = findPrefix(routes, raw);
+				Query q = new Query(raw, prefix, 
+						System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SEARCH_DEADLINE), 0);
+				current = q;
+				if(cancelled) {
+					return;
+				}
+				String key = ResultCache.keyOf(q);
+				for(Plugin p : (prefix != null) ? routes.get(prefix) : plugins) {
+					if(q.isCancelled()) {
+						return;
+					}
+					long now = System.currentTimeMillis();
+					long cacheDuration = p.getCacheDuration();
+					if(cacheDuration <= 0 || !p.accepts(q) || cache.get(key, p, now) != null
+							|| getHealth(p).getState() != PluginHealth.State.CLOSED || !p.isAvailable()) {
+						continue;
+					}
+					long generation = cache.getGeneration(p);
+					try {
+						Matches found = p.isRefinable()
+								? p.search(q, getRefinement(p).getCandidates(q), new BitSet())
+								: Matches.of(p.search(q));
+						if(!q.isIncomplete()) {
+							cache.put(key, p, found.withPlugin(p), expiresAt(now, cacheDuration), generation);
+						}
+					} catch(Exception ex) {
+						Log.d("Prefetch of %s failed: %s", p.getClass().getSimpleName(), ex);
+					}
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * The search of a single plugin, running on the search pool. The outcome
+	 * is recorded exactly once: either when the search finishes, or when
+	 * it misses the deadline, whatever happens first.
+	 */
+	private class PluginSearch implements Callable<Matches> {
+		
+		private final Plugin plugin;
+		private final PluginHealth health;
+		private final Query query;
+		private final String cacheKey;
+		private final long cacheGeneration;
+		private final AtomicBoolean reported = new AtomicBoolean();
+		private Future<Matches> future;
+
+		PluginSearch(Plugin plugin, PluginHealth health, Query query, String cacheKey) {
+			this.plugin = plugin;
+			this.health = health;
+			this.query = query;
+			this.cacheKey = cacheKey;
+			this.cacheGeneration = cache.getGeneration(plugin);
+		}
+
+		@Override
+		public Matches call() throws InterruptedException {
+			// Wait for the plugin's previous search, if it hasn't returned yet
+			if(!health.acquire(query.getDeadline())) {
+				Log.d("%s was busy with an earlier search until the deadline.", 
+						plugin.getClass().getSimpleName());
+				if(reported.compareAndSet(false, true)) {
+					recordHealth(plugin, health, false);
+				}
+				return Matches.of(Collections.<Result>emptyList()).withPlugin(plugin);
+			}
+			
+			PluginMetrics pluginMetrics = metrics.forPlugin(plugin.getClass());
+			PluginSearchEvent event = new PluginSearchEvent();
+			event.begin();
+			long start = System.nanoTime();
+			Matches results = Matches.of(Collections.<Result>emptyList()).withPlugin(plugin);
+			boolean failed = false;
+			try {
+				results = searchPlugin().withPlugin(plugin);
+			} catch(Exception ex) {
+				failed = true;
+				pluginMetrics.recordException();
+				Log.w("Exception in plugin", ex);
+			} finally {
+				health.release();
+			}
+			long nanos = System.nanoTime() - start;
+			pluginMetrics.recordSearch(nanos, results.size());
+			if(nanos > TimeUnit.MILLISECONDS.toNanos(SEARCH_BUDGET)) {
+				pluginMetrics.recordTimeout();
+			}
+			if(reported.compareAndSet(false, true)) {
+				recordHealth(plugin, health, !failed);
+			}
+			
+			// Cache the results even if the deadline has been missed, so they
+			// can be used the next time, unless the plugin stopped early.
+			long cacheDuration = plugin.getCacheDuration();
+			if(!failed && !query.isIncomplete() && cacheDuration > 0) {
+				long expires = expiresAt(System.currentTimeMillis(), cacheDuration);
+				cache.put(cacheKey, plugin, results, expires, cacheGeneration);
+			}
+			
+			event.end();
+			if(event.shouldCommit()) {
+				event.queryId = query.getQueryId();
+				event.plugin = plugin.getClass().getSimpleName();
+				event.resultCount = results.size();
+				event.failed = failed;
+				event.commit();
+			}
+			return results;
 		}
+		
+		/**
+		 * Searches the plugin. If the plugin is refinable and the query extends
+		 * its last query, only the entries that matched the last query are searched.
+		 */
+		private Matches searchPlugin() {
+			if(!plugin.isRefinable()) {
+				return Matches.of(plugin.search(query));
+			}
+			Refinement refinement = getRefinement(plugin);
+			long generation = refinement.getGeneration();
+			BitSet candidates = refinement.getCandidates(query);
+			BitSet matched = new BitSet();
+			Matches found = plugin.search(query, candidates, matched);
+			if(query.isIncomplete()) {
+				// The plugin stopped before finding all matches
+				return found;
+			}
+			if(!refinement.update(query, matched, generation) && candidates != null) {
+				// The plugin has been refreshed meanwhile, so the candidates
+				// might have referred to other entries. Search all of them again.
+				generation = refinement.getGeneration();
+				matched = new BitSet();
+				found = plugin.search(query, null, matched);
+				refinement.update(query, matched, generation);
+			}
+			return found;
+		}
+		
+		/**
+		 * Called when the search missed the deadline. Its results will be
+		 * ignored, but the search keeps on running.
+		 */
+		void timedOut() {
+			Log.d("%s missed the search deadline.", plugin.getClass().getSimpleName());
+			if(reported.compareAndSet(false, true)) {
+				recordHealth(plugin, health, false);
+			}
+		}
+		
 	}
 
 	/**
@@ -108,18 +652,27 @@ public class PluginManager {
 		try {
 			plugins = new HashSet<Plugin>();
 			// Get all classes in plugin package
-			ClassPath classPath = ClassPath.from(Thread.currentThread().getContextClassLoader());
+			ClassLoader loader = Thread.currentThread().getContextClassLoader();
 			String pluginPath = PluginManager.class.getPackage().getName().concat(".plugins");
-			ImmutableSet<ClassInfo> classes = classPath.getTopLevelClasses(pluginPath);
+			ClassLoader scannable = getScannableClassLoader(loader);
+			ImmutableSet<ClassInfo> classes;
+			try {
+				classes = ClassPath.from(scannable).getTopLevelClasses(pluginPath);
+			} finally {
+				// A class loader created only for scanning would keep all jars open
+				if(scannable != loader) {
+					((URLClassLoader)scannable).close();
+				}
+			}
 			
 			// Iterate over all classes in plugin package, and check if they
 			// extend Plugin. If so instantiate them and add them to plugin list.
 			for(ClassInfo info : classes) {
 				try {
-					Class<?> clazz = info.load();
+					Class<?> clazz = Class.forName(info.getName(), true, loader);
 					if(Plugin.class.isAssignableFrom(clazz)) {
 						Plugin p = (Plugin)clazz.newInstance();
-						p.refresh();
+						refresh(p);
 						plugins.add(p);
 					}
 				} catch(Exception ex) {
@@ -130,6 +683,48 @@ public class PluginManager {
 		} catch (IOException ex) {
 			Log.e("Plugins couldn't be loaded!", ex);
 		}
+		
+		// Remember which plugins are responsible for which prefix
+		Map<String,List<Plugin>> routes = new HashMap<String,List<Plugin>>();
+		for(Plugin p : plugins) {
+			for(String prefix : p.getTriggerPrefixes()) {
+				String key = prefix.toLowerCase();
+				if(!routes.containsKey(key)) {
+					routes.put(key, new ArrayList<Plugin>());
+				}
+				routes.get(key).add(p);
+			}
+		}
+		prefixRoutes = routes;
+	}
+	
+	/**
+	 * Returns a class loader, whose classes Guava's {@link ClassPath} can list.
+	 * That only works for {@link URLClassLoader URLClassLoaders}, but since
+	 * Java 9 the application class loader isn't one anymore. In that case a
+	 * class loader over the entries of the class path is returned. It must
+	 * only be used to list the classes, not to load them.
+	 * 
+	 * @param loader The class loader, that loads the application.
+	 * @return A class loader, that can be scanned for classes. If this isn't
+	 *		{@code loader}, it must be closed after scanning.
+	 */
+	private static ClassLoader getScannableClassLoader(ClassLoader loader) {
+		if(loader instanceof URLClassLoader) {
+			return loader;
+		}
+		List<URL> urls = new ArrayList<URL>();
+		for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if(entry.isEmpty()) {
+				continue;
+			}
+			try {
+				urls.add(new File(entry).toURI().toURL());
+			} catch(MalformedURLException ex) {
+				Log.w("Skipping class path entry %s.", entry);
+			}
+		}
+		return new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
 	}
 	
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A search query as passed to the {@link Plugin plugins}. The query is
+ * created once by the {@link PluginManager} and shared by all plugins, so
+ * everything that only depends on the query (normalizing, tokenizing, the
+ * letter pairs for the string similarity) is only computed once, instead of
+ * once per plugin or even once per compared string.
+ * 
+ * Instances are immutable (apart from being {@link #cancel() cancelled} and
+ * {@link #markIncomplete() marked incomplete}) and can be used from several threads.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class Query {
+	
+	private final String raw;
+	private final String prefix;
+	private final String text;
+	private final List<String> tokens;
+	private final int[] bigrams;
+	private final long deadline;
+	private final long queryId;
+	private volatile boolean cancelled;
+	private volatile boolean incomplete;
+
+	/**
+	 * Creates a new query.
+	 * 
+	 * @param raw The query as entered by the user.
+	 * @param prefix The trigger prefix the query starts with in lower case,
+	 *		or {@code null} if it doesn't start with one.
+	 * @param deadline The {@link System#nanoTime()} the search must be finished at.
+	 * @param queryId The ID of the query, to correlate it with trace events.
+	 */
+	Query(String raw, String prefix, long deadline, long queryId) {
+		this.raw = raw;
+		this.prefix = prefix;
+		this.deadline = deadline;
+		this.queryId = queryId;
+		
+		String normalized = raw.trim().toLowerCase();
+		if(prefix != null) {
+			normalized = normalized.substring(prefix.length()).trim();
+		}
+		this.text = normalized;
+		
+		List<String> t = new ArrayList<String>();
+		for(String token : normalized.split("\\s+")) {
+			if(!token.isEmpty()) {
+				t.add(token);
+			}
+		}
+		this.tokens = Collections.unmodifiableList(t);
+		this.bigrams = bigrams(normalized);
+	}
+
+	/**
+	 * @return The query as entered by the user.
+	 */
+	public String getRaw() {
+		return raw;
+	}
+
+	/**
+	 * @return The trigger prefix the query started with (see 
+	 *		{@link Plugin#getTriggerPrefixes()}) or {@code null}.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Returns the text to search for: the query in lower case, without the
+	 * trigger prefix and without leading and trailing whitespace.
+	 * 
+	 * @return The normalized query text.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return The whitespace separated words of {@link #getText()}.
+	 */
+	public List<String> getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * @return The {@link System#nanoTime()} the search must be finished at.
+	 *		Results of plugins that are slower will be ignored.
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+	
+	/**
+	 * @return Whether the deadline has passed already.
+	 */
+	public boolean isExpired() {
+		return System.nanoTime() - deadline > 0;
+	}
+	
+	/**
+	 * @return The time until the deadline in milliseconds, never less than 0.
+	 */
+	public long getRemainingMillis() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
+
+	/**
+	 * Cancels the query. Plugins, that are still searching, should stop as
+	 * soon as possible, since their results won't be used anymore.
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * Returns whether the query has been cancelled. Long running searches
+	 * should check this regularly and return, what they have found so far
+	 * (see {@link #markIncomplete()}).
+	 * 
+	 * @return Whether the results of the query are not needed anymore.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Marks, that a search stopped before finding all results, because the
+	 * query has been cancelled. Every plugin, that returns early, must call
+	 * this, so its results are neither cached nor used to refine later queries.
+	 * Results, that have been found completely, are cached, even if the
+	 * deadline has been missed.
+	 */
+	public void markIncomplete() {
+		incomplete = true;
+	}
+
+	/**
+	 * Returns whether any search of the query stopped early. Since the query
+	 * is shared by all plugins, this applies to the results of all of them.
+	 * 
+	 * @return Whether the results might be incomplete.
+	 */
+	public boolean isIncomplete() {
+		return incomplete;
+	}
+
+	/**
+	 * @return The ID of the query, to correlate it with trace events.
+	 */
+	public long getQueryId() {
+		return queryId;
+	}
+	
+	/**
+	 * Calculates the similarity of the query to a string. See 
+	 * {@link Plugin#getStringSimiliarity(java.lang.String, java.lang.String)}
+	 * for the algorithm.
+	 * 
+	 * @param str The string to compare the query to. May be {@code null}.
+	 * @return The similarity from 0.0 to 1.0.
+	 */
+	double similarity(String str) {
+		if(str == null || bigrams.length == 0) {
+			return 0.0;
+		}
+		return similarity(bigrams, bigrams(str));
+	}
+
+	@Override
+	public String toString() {
+		return raw;
+	}
+	
+	/**
+	 * Calculates the similarity of two sorted arrays of letter pairs: twice
+	 * the number of pairs in both, divided by the number of all pairs.
+	 */
+	static double similarity(int[] pairs1, int[] pairs2) {
+		int union = pairs1.length + pairs2.length;
+		if(union == 0) {
+			return 0.0;
+		}
+		int intersection = 0;
+		int i = 0;
+		int j = 0;
+		while(i < pairs1.length && j < pairs2.length) {
+			if(pairs1[i] == pairs2[j]) {
+				intersection++;
+				i++;
+				j++;
+			} else if(pairs1[i] < pairs2[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return (2.0 * intersection) / union;
+	}
+	
+	/**
+	 * Returns the pairs of adjacent letters in each word of a string. Every
+	 * pair is packed into one int (the first letter in the upper 16 bits),
+	 * so no strings need to be created. The pairs are sorted, so two of
+	 * these arrays can be intersected in linear time.
+	 * 
+	 * @param str The string.
+	 * @return The sorted letter pairs of the string in lower case.
+	 */
+	static int[] bigrams(String str) {
+		int length = str.length();
+		if(length < 2) {
+			return new int[0];
+		}
+		int[] pairs = new int[length - 1];
+		int count = 0;
+		char last = Character.toLowerCase(str.charAt(0));
+		for(int i = 1; i < length; i++) {
+			char c = Character.toLowerCase(str.charAt(i));
+			if(!Character.isWhitespace(last) && !Character.isWhitespace(c)) {
+				pairs[count++] = (last << 16) | c;
+			}
+			last = c;
+		}
+		if(count < pairs.length) {
+			pairs = Arrays.copyOf(pairs, count);
+		}
+		Arrays.sort(pairs);
+		return pairs;
+	}
+	
+}
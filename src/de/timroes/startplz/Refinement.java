@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import java.util.BitSet;
+
+/**
+ * Remembers which entries of a {@link Plugin#isRefinable() refinable} plugin
+ * matched its last query. If the next query extends that query (as it does
+ * when the user types another character), only these entries need to be
+ * searched again, so every further character gets cheaper.
+ *
+ * The entries are numbered by the plugin, so the remembered entries become
+ * invalid, when the plugin is refreshed. Every refresh increases the
+ * generation, and state from an older generation is never used.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+class Refinement {
+
+	private long generation;
+	private String prefix;
+	private String text;
+	private BitSet matched;
+
+	/**
+	 * @return The current generation. Pass it to {@link #update(Query, BitSet, long)}
+	 *		after the search.
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the entries, that have to be searched for a query. These are
+	 * the entries, that matched the last query, if the new query extends it.
+	 * A query extends the last one, if it has the same prefix and its text
+	 * contains the last text: every entry containing the new text contains
+	 * the last text as well.
+	 *
+	 * @param query The new query.
+	 * @return The entries, that matched the last query, or {@code null} if
+	 *		all entries have to be searched. The returned set must not be modified.
+	 */
+	synchronized BitSet getCandidates(Query query) {
+		if(matched == null || !query.getText().contains(text)
+				|| (prefix == null ? query.getPrefix() != null : !prefix.equals(query.getPrefix()))) {
+			return null;
+		}
+		return matched;
+	}
+
+	/**
+	 * Remembers the entries, that matched a query. Nothing is remembered, if
+	 * the plugin has been refreshed since the search started.
+	 *
+	 * @param query The query.
+	 * @param matched The entries matching the query.
+	 * @param searchGeneration The generation at the start of the search.
+	 * @return Whether the state has been updated.
+	 */
+	synchronized boolean update(Query query, BitSet matched, long searchGeneration) {
+		if(searchGeneration != generation) {
+			return false;
+		}
+		this.prefix = query.getPrefix();
+		this.text = query.getText();
+		this.matched = matched;
+		return true;
+	}
+
+	/**
+	 * Forgets the remembered entries, e.g. because the plugin is refreshed or
+	 * its search failed.
+	 */
+	synchronized void invalidate() {
+		generation++;
+		prefix = null;
+		text = null;
+		matched = null;
+	}
+
+}
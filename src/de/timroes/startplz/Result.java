@@ -22,6 +22,24 @@ import javax.swing.ImageIcon;
  * @author Tim Roes <mail@timroes.de>
  */
 public abstract class Result {
+	
+	/**
+	 * The default time in milliseconds, an execution may take.
+	 */
+	public final static long DEFAULT_EXECUTION_TIMEOUT = 10000;
+	
+	private Plugin plugin;
+	
+	// Display data, cached the first time it's requested. Results of cached 
+	// matches are used by several threads, so the flags are volatile and 
+	// only set after the data, which is therefore visible once they are set.
+	// Two threads might both load the data, but will find the same.
+	private String displayTitle;
+	private String displaySubtitle;
+	private ImageIcon displayIcon;
+	private volatile boolean hasDisplayTitle;
+	private volatile boolean hasDisplaySubtitle;
+	private volatile boolean hasDisplayIcon;
 
 	@Override
 	public String toString() {
@@ -78,6 +96,93 @@ public abstract class Result {
 	
 	public abstract ImageIcon getIcon();
 	
-	public abstract void execute();
+	/**
+	 * Returns the plugin, that has delivered this result.
+	 * 
+	 * @return The plugin of this result or {@code null} if the result hasn't
+	 *		been returned by the {@link PluginManager}.
+	 */
+	public final Plugin getPlugin() {
+		return plugin;
+	}
+	
+	final void setPlugin(Plugin plugin) {
+		this.plugin = plugin;
+	}
+	
+	/**
+	 * Returns the title of this result. Other than {@link #getTitle()} the title
+	 * will only be calculated once and cached afterwards.
+	 * 
+	 * @return The cached title.
+	 */
+	public final String getDisplayTitle() {
+		if(!hasDisplayTitle) {
+			displayTitle = getTitle();
+			hasDisplayTitle = true;
+		}
+		return displayTitle;
+	}
+	
+	/**
+	 * Returns the subtitle of this result. Other than {@link #getSubtitle()} the
+	 * subtitle will only be calculated once and cached afterwards.
+	 * 
+	 * @return The cached subtitle.
+	 */
+	public final String getDisplaySubtitle() {
+		if(!hasDisplaySubtitle) {
+			displaySubtitle = getSubtitle();
+			hasDisplaySubtitle = true;
+		}
+		return displaySubtitle;
+	}
+	
+	/**
+	 * Returns the icon of this result. Other than {@link #getIcon()} the
+	 * icon will only be loaded once and cached afterwards.
+	 * 
+	 * @return The cached icon.
+	 */
+	public final ImageIcon getDisplayIcon() {
+		if(!hasDisplayIcon) {
+			displayIcon = getIcon();
+			hasDisplayIcon = true;
+		}
+		return displayIcon;
+	}
+	
+	/**
+	 * Loads all data needed to display this result. Until then a result is just
+	 * a cheap reference to the plugin's data together with its weight.
+	 */
+	final void materialize() {
+		getDisplayTitle();
+		getDisplaySubtitle();
+		getDisplayIcon();
+	}
+	
+	/**
+	 * Executes the action of this result. This will be called from a worker
+	 * thread of the {@link ExecutionService}, after the search window has already
+	 * been closed. So this method may block, as long as it stays within the
+	 * {@link #getExecutionTimeout() timeout}. If it fails it should throw an 
+	 * exception, which will be reported to the user.
+	 * 
+	 * @throws Exception If the action couldn't be executed.
+	 */
+	public abstract void execute() throws Exception;
+	
+	/**
+	 * Returns the time in milliseconds the execution of this result may take.
+	 * If it takes longer, the executing thread will be interrupted and the
+	 * execution will be reported as failed. By default this is 
+	 * {@link #DEFAULT_EXECUTION_TIMEOUT}.
+	 * 
+	 * @return The timeout in milliseconds.
+	 */
+	public long getExecutionTimeout() {
+		return DEFAULT_EXECUTION_TIMEOUT;
+	}
 
 }
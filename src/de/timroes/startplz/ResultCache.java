@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the results of plugins per query, so typing the same query again
+ * (e.g. after a backspace or when the window is opened again) doesn't search
+ * these plugins again. Only results of plugins with a 
+ * {@link Plugin#getCacheDuration() cache duration} are cached.
+ *
+ * The least recently used queries are evicted, when more than
+ * {@link #MAX_QUERIES} queries or {@link #MAX_RESULTS} results in total are
+ * cached. The results of a plugin are dropped, when the plugin is refreshed.
+ *
+ * The cache holds the {@link Matches} of the plugins, which are immutable.
+ * Every {@link SearchResults} creates its own results of catalog entries.
+ * Only results, that plugins created themselves, are shared between the
+ * threads using the cache.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+class ResultCache {
+
+	final static int MAX_QUERIES = 256;
+	final static int MAX_RESULTS = 20000;
+
+	/** The results of each plugin per query, in the order the queries have been used. */
+	private final LinkedHashMap<String,Map<Plugin,Entry>> queries =
+			new LinkedHashMap<String,Map<Plugin,Entry>>(16, 0.75f, true);
+	private final Map<Plugin,Long> generations = new HashMap<Plugin,Long>();
+	private int resultCount;
+
+	/**
+	 * Returns the key of a query in the cache. Queries, that only differ in
+	 * case or whitespace around the text, have the same key.
+	 *
+	 * @param query The query.
+	 * @return The key of the query.
+	 */
+	static String keyOf(Query query) {
+		return (query.getPrefix() != null) ? query.getPrefix().concat(query.getText()) : query.getText();
+	}
+
+	/**
+	 * Returns the cached results of a plugin for a query.
+	 *
+	 * @param key The key of the query.
+	 * @param plugin The plugin.
+	 * @param now The current time in milliseconds.
+	 * @return The matches or {@code null} if none are cached or they expired.
+	 */
+	synchronized Matches get(String key, Plugin plugin, long now) {
+		Map<Plugin,Entry> entries = queries.get(key);
+		if(entries == null) {
+			return null;
+		}
+		Entry e = entries.get(plugin);
+		if(e == null) {
+			return null;
+		}
+		if(now >= e.expires) {
+			remove(key, entries, plugin);
+			return null;
+		}
+		return e.matches;
+	}
+
+	/**
+	 * Returns the generation of a plugin's results, that must be passed to
+	 * {@link #put(String, Plugin, Matches, long, long)}. It changes with every
+	 * refresh of the plugin.
+	 *
+	 * @param plugin The plugin.
+	 * @return The current generation.
+	 */
+	synchronized long getGeneration(Plugin plugin) {
+		Long generation = generations.get(plugin);
+		return (generation != null) ? generation : 0;
+	}
+
+	/**
+	 * Caches the results of a plugin for a query. Nothing is cached, if the
+	 * plugin has been refreshed since the search started.
+	 *
+	 * @param key The key of the query.
+	 * @param plugin The plugin.
+	 * @param matches The matches of the plugin.
+	 * @param expires The time in milliseconds the results expire at.
+	 * @param generation The generation at the start of the search.
+	 */
+	synchronized void put(String key, Plugin plugin, Matches matches, long expires, long generation) {
+		if(generation != getGeneration(plugin) || matches.size() > MAX_RESULTS) {
+			return;
+		}
+		Map<Plugin,Entry> entries = queries.get(key);
+		if(entries == null) {
+			entries = new HashMap<Plugin,Entry>();
+			queries.put(key, entries);
+		}
+		Entry old = entries.put(plugin, new Entry(matches, expires));
+		if(old != null) {
+			resultCount -= old.matches.size();
+		}
+		resultCount += matches.size();
+		
+		// Evict the least recently used queries
+		Iterator<Map<Plugin,Entry>> it = queries.values().iterator();
+		while((queries.size() > MAX_QUERIES || resultCount > MAX_RESULTS) && it.hasNext()) {
+			for(Entry e : it.next().values()) {
+				resultCount -= e.matches.size();
+			}
+			it.remove();
+		}
+	}
+
+	/**
+	 * Drops all cached results of a plugin. Results of searches, that are
+	 * still running, won't be cached anymore.
+	 *
+	 * @param plugin The plugin.
+	 */
+	synchronized void invalidate(Plugin plugin) {
+		generations.put(plugin, getGeneration(plugin) + 1);
+		Iterator<Map.Entry<String,Map<Plugin,Entry>>> it = queries.entrySet().iterator();
+		while(it.hasNext()) {
+			Map<Plugin,Entry> entries = it.next().getValue();
+			Entry e = entries.remove(plugin);
+			if(e != null) {
+				resultCount -= e.matches.size();
+			}
+			if(entries.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	private void remove(String key, Map<Plugin,Entry> entries, Plugin plugin) {
+		Entry e = entries.remove(plugin);
+		resultCount -= e.matches.size();
+		if(entries.isEmpty()) {
+			queries.remove(key);
+		}
+	}
+
+	private static class Entry {
+
+		final Matches matches;
+		final long expires;
+
+		Entry(Matches matches, long expires) {
+			this.matches = matches;
+			this.expires = expires;
+		}
+
+	}
+
+}
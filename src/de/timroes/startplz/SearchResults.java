@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The ordered results of a search, as returned by {@link PluginManager#search(java.lang.String)}.
+ * The results are divided into pages of {@link #PAGE_SIZE} results. Until a
+ * page is accessed the first time, its results are only the weight and the
+ * entry of the plugin, they have been found in (see {@link Matches}). Then
+ * the results of the page are created and their display data (title, subtitle
+ * and icon) is loaded. So the memory of a search mostly depends on the
+ * number of pages, that have been looked at.
+ *
+ * Use {@link #peek(int)} to access a result without loading its display data.
+ * The results are created for the view, so a view must only be used by one
+ * thread at a time.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class SearchResults extends AbstractList<Result> implements RandomAccess {
+
+	public final static int PAGE_SIZE = 20;
+
+	private final Matches[] sources;
+	/** The matches each result is from and its position in them, ordered by relevance. */
+	private final int[] source;
+	private final int[] position;
+	private final Result[] created;
+	private final BitSet materializedPages = new BitSet();
+
+	/**
+	 * Creates a new result view. The matches are ordered by weight. Matches
+	 * with the same weight are ordered by their plugin and then by their 
+	 * order within the matches of the plugin, so no display data is needed
+	 * to order them.
+	 *
+	 * @param matches The matches of all plugins.
+	 */
+	SearchResults(List<Matches> matches) {
+		sources = matches.toArray(new Matches[matches.size()]);
+		int count = 0;
+		for(Matches m : sources) {
+			count += m.size();
+		}
+		final int[] allSources = new int[count];
+		final int[] allPositions = new int[count];
+		Integer[] order = new Integer[count];
+		int n = 0;
+		for(int s = 0; s < sources.length; s++) {
+			for(int i = 0; i < sources[s].size(); i++) {
+				allSources[n] = s;
+				allPositions[n] = i;
+				order[n] = n;
+				n++;
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				Matches ma = sources[allSources[a]];
+				Matches mb = sources[allSources[b]];
+				int weight = Double.compare(mb.getWeight(allPositions[b]), ma.getWeight(allPositions[a]));
+				if(weight != 0) {
+					return weight;
+				}
+				if(ma != mb) {
+					int plugin = pluginName(ma).compareTo(pluginName(mb));
+					if(plugin != 0) {
+						return plugin;
+					}
+					return Integer.compare(allSources[a], allSources[b]);
+				}
+				return Integer.compare(ma.getOrder(allPositions[a]), mb.getOrder(allPositions[b]));
+			}
+		});
+		source = new int[count];
+		position = new int[count];
+		for(int i = 0; i < count; i++) {
+			source[i] = allSources[order[i]];
+			position[i] = allPositions[order[i]];
+		}
+		created = new Result[count];
+	}
+
+	private static String pluginName(Matches m) {
+		return (m.getPlugin() != null) ? m.getPlugin().getClass().getName() : "";
+	}
+
+	/**
+	 * Returns an empty result view.
+	 *
+	 * @return An empty result view.
+	 */
+	public static SearchResults empty() {
+		return new SearchResults(Collections.<Matches>emptyList());
+	}
+
+	/**
+	 * Returns the result at the given position. The display data of the page
+	 * containing that result will be loaded, if that hasn't happened yet.
+	 *
+	 * @param index The position of the result.
+	 * @return The result.
+	 */
+	@Override
+	public Result get(int index) {
+		materializePage(index / PAGE_SIZE);
+		return created[index];
+	}
+
+	/**
+	 * Returns the result at the given position, without loading any display data.
+	 *
+	 * @param index The position of the result.
+	 * @return The result.
+	 */
+	public Result peek(int index) {
+		if(created[index] == null) {
+			created[index] = sources[source[index]].createResult(position[index]);
+		}
+		return created[index];
+	}
+
+	/**
+	 * Checks whether a result of this view shows the same as a result of
+	 * another view. Neither result is created for that.
+	 *
+	 * @param index The position of the result in this view.
+	 * @param other The other view.
+	 * @param otherIndex The position of the result in the other view.
+	 * @return Whether both results show the same.
+	 */
+	public boolean isSameResult(int index, SearchResults other, int otherIndex) {
+		return sources[source[index]].isSame(position[index], 
+				other.sources[other.source[otherIndex]], other.position[otherIndex]);
+	}
+
+	@Override
+	public int size() {
+		return created.length;
+	}
+
+	/**
+	 * Returns the number of pages in this view.
+	 *
+	 * @return The number of pages.
+	 */
+	public int getPageCount() {
+		return (created.length + PAGE_SIZE - 1) / PAGE_SIZE;
+	}
+
+	/**
+	 * Returns all results on the given page, with their display data loaded.
+	 *
+	 * @param page The index of the page, starting at 0.
+	 * @return The results of that page.
+	 */
+	public List<Result> getPage(int page) {
+		materializePage(page);
+		int from = page * PAGE_SIZE;
+		int to = Math.min(created.length, from + PAGE_SIZE);
+		return Arrays.asList(created).subList(from, to);
+	}
+
+	/**
+	 * Checks whether a page has already been materialized.
+	 *
+	 * @param page The index of the page.
+	 * @return Whether the display data of the page has been loaded.
+	 */
+	public boolean isPageMaterialized(int page) {
+		return materializedPages.get(page);
+	}
+
+	private void materializePage(int page) {
+		if(materializedPages.get(page)) {
+			return;
+		}
+		int to = Math.min(created.length, (page + 1) * PAGE_SIZE);
+		for(int i = page * PAGE_SIZE; i < to; i++) {
+			peek(i).materialize();
+		}
+		materializedPages.set(page);
+	}
+
+}
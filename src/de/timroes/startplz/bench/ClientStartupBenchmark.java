@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.bench;
+
+import de.timroes.startplz.ApplicationStarter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the wall time from executing the application until the process
+ * exits, when an instance is already running. That is the cost every hotkey
+ * press pays.
+ *
+ * To measure only the client path, the benchmark doesn't need a real running
+ * instance. It binds its own socket in a temporary runtime directory, that
+ * accepts and discards everything, and starts the clients with
+ * {@code XDG_RUNTIME_DIR} pointing to that directory.
+ *
+ * The benchmark also checks that the client path doesn't load any AWT, Swing,
+ * Guava or plugin classes.
+ *
+ * Usage: {@code ClientStartupBenchmark [iterations] [extra JVM arguments...]}
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class ClientStartupBenchmark {
+
+	private final static String[] FORBIDDEN_PACKAGES = new String[] {
+		"java.awt.", "javax.swing.", "sun.awt.", "com.google.common.",
+		"de.timroes.startplz.plugins.", "de.timroes.startplz.ui."
+	};
+
+	public static void main(String[] args) throws Exception {
+
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		List<String> jvmArgs = (args.length > 1)
+				? Arrays.asList(args).subList(1, args.length) : new ArrayList<String>();
+
+		Path runtimeDir = Files.createTempDirectory("start-plz-bench");
+		Path socket = runtimeDir.resolve("start-plz.sock");
+		final ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(UnixDomainSocketAddress.of(socket));
+		startDiscardingServer(server);
+
+		try {
+			// Check once which classes the client loads
+			List<String> forbidden = runClientAndListForbiddenClasses(runtimeDir, jvmArgs);
+			if(!forbidden.isEmpty()) {
+				System.out.println("WARNING: The client path loaded these classes:");
+				for(String c : forbidden) {
+					System.out.println("  " + c);
+				}
+			}
+
+			// Warm up the file system cache
+			for(int i = 0; i < 3; i++) {
+				runClient(runtimeDir, jvmArgs);
+			}
+
+			long[] times = new long[iterations];
+			for(int i = 0; i < iterations; i++) {
+				times[i] = runClient(runtimeDir, jvmArgs);
+			}
+			Arrays.sort(times);
+			long sum = 0;
+			for(long t : times) {
+				sum += t;
+			}
+
+			System.out.println(String.format("Client exec -> exit over %d runs%s:", iterations,
+					jvmArgs.isEmpty() ? "" : " with " + jvmArgs));
+			System.out.println(String.format("min %.1f ms, p50 %.1f ms, mean %.1f ms, max %.1f ms",
+					times[0] / 1e6, times[iterations / 2] / 1e6,
+					sum / (double)iterations / 1e6, times[iterations - 1] / 1e6));
+		} finally {
+			server.close();
+			Files.deleteIfExists(socket);
+			Files.deleteIfExists(runtimeDir);
+		}
+
+	}
+
+	private static ProcessBuilder createClient(Path runtimeDir, List<String> jvmArgs, String... extraArgs) {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.addAll(jvmArgs);
+		cmd.addAll(Arrays.asList(extraArgs));
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(ApplicationStarter.class.getName());
+		ProcessBuilder builder = new ProcessBuilder(cmd);
+		builder.environment().put("XDG_RUNTIME_DIR", runtimeDir.toString());
+		builder.redirectErrorStream(true);
+		return builder;
+	}
+
+	/**
+	 * Runs the client once.
+	 *
+	 * @return The wall time from starting the process until it exited in nanoseconds.
+	 */
+	private static long runClient(Path runtimeDir, List<String> jvmArgs) throws IOException, InterruptedException {
+		ProcessBuilder builder = createClient(runtimeDir, jvmArgs);
+		builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		long start = System.nanoTime();
+		Process proc = builder.start();
+		int exit = proc.waitFor();
+		long time = System.nanoTime() - start;
+		if(exit != 0) {
+			throw new IllegalStateException("Client exited with code " + exit);
+		}
+		return time;
+	}
+
+	private static List<String> runClientAndListForbiddenClasses(Path runtimeDir, List<String> jvmArgs)
+			throws IOException, InterruptedException {
+		Process proc = createClient(runtimeDir, jvmArgs, "-Xlog:class+load=info:stdout").start();
+		List<String> forbidden = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+		String line;
+		while((line = reader.readLine()) != null) {
+			for(String pkg : FORBIDDEN_PACKAGES) {
+				if(line.contains(" " + pkg)) {
+					forbidden.add(line.substring(line.indexOf(" " + pkg) + 1).split(" ")[0]);
+				}
+			}
+		}
+		proc.waitFor();
+		return forbidden;
+	}
+
+	private static void startDiscardingServer(final ServerSocketChannel server) {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ByteBuffer buffer = ByteBuffer.allocate(1024);
+				while(server.isOpen()) {
+					try(SocketChannel client = server.accept()) {
+						buffer.clear();
+						while(client.read(buffer) >= 0) {
+							buffer.clear();
+						}
+					} catch(IOException ex) {
+						// Server closed or client gone
+					}
+				}
+			}
+		}, "DiscardingServer");
+		t.setDaemon(true);
+		t.start();
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.bench;
+
+import de.timroes.startplz.Result;
+import de.timroes.startplz.ui.ResultCellRenderer;
+import de.timroes.startplz.ui.ResultPainter;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.ImageIcon;
+
+/**
+ * Measures how long it takes to render a page of results with the
+ * {@link ResultPainter}, that the {@link ResultCellRenderer} paints with. The rows are rendered into an offscreen image,
+ * so this runs in headless mode and doesn't need a display.
+ *
+ * Usage: {@code RenderBenchmark [iterations] [rows per page]}
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class RenderBenchmark {
+
+	private final static int WIDTH = 449;
+	private final static int WARMUP_ITERATIONS = 2000;
+
+	public static void main(String[] args) {
+
+		System.setProperty("java.awt.headless", "true");
+
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int rowCount = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+
+		ResultPainter painter = new ResultPainter();
+		List<Result> rows = createRows(rowCount);
+
+		BufferedImage page = new BufferedImage(WIDTH, rowCount * painter.getCellHeight(),
+				BufferedImage.TYPE_INT_ARGB);
+
+		// Let the JIT compile the rendering path before measuring
+		for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+			renderPage(painter, rows, page);
+		}
+
+		long[] times = new long[iterations];
+		for(int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			renderPage(painter, rows, page);
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+
+		long sum = 0;
+		for(long t : times) {
+			sum += t;
+		}
+
+		System.out.println(String.format("Rendered %d pages of %d rows (%dx%d px)",
+				iterations, rowCount, page.getWidth(), page.getHeight()));
+		System.out.println(String.format("page: mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+				sum / (double)iterations / 1000.0,
+				times[iterations / 2] / 1000.0,
+				times[(int)(iterations * 0.99)] / 1000.0,
+				times[iterations - 1] / 1000.0));
+		System.out.println(String.format("row:  mean %.1f us",
+				sum / (double)iterations / rowCount / 1000.0));
+
+	}
+
+	private static void renderPage(ResultPainter painter, List<Result> rows, BufferedImage page) {
+		Graphics2D g = page.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, page.getWidth(), page.getHeight());
+			painter.renderPage(g, rows, page.getWidth());
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Creates results, that look like typical application results. Every
+	 * second result uses an icon larger than the rendered size, so scaling is
+	 * part of the measurement.
+	 *
+	 * @param count The number of results to create.
+	 * @return The results.
+	 */
+	private static List<Result> createRows(int count) {
+		final ImageIcon smallIcon = createIcon(32);
+		final ImageIcon largeIcon = createIcon(128);
+		List<Result> rows = new ArrayList<Result>(count);
+		for(int i = 0; i < count; i++) {
+			final int index = i;
+			rows.add(new Result() {
+
+				@Override
+				public double getWeight() {
+					return 1.0 / (index + 1);
+				}
+
+				@Override
+				public String getTitle() {
+					return "Benchmark Application " + index;
+				}
+
+				@Override
+				public String getSubtitle() {
+					return "A rather long description of the benchmark application, "
+							+ "that will need to be clipped to the width of the list";
+				}
+
+				@Override
+				public ImageIcon getIcon() {
+					return (index % 2 == 0) ? smallIcon : largeIcon;
+				}
+
+				@Override
+				public void execute() { }
+
+			});
+		}
+		return rows;
+	}
+
+	private static ImageIcon createIcon(int size) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(new Color(51, 181, 229));
+		g.fillOval(0, 0, size, size);
+		g.dispose();
+		return new ImageIcon(image);
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.bench;
+
+import de.timroes.startplz.ui.StartupProbe;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the startup of a new instance: the time from the start of the JVM
+ * until the window has been painted, and until the first results have been
+ * painted. The instance is started from the jar with the {@link StartupProbe}
+ * enabled, so it exits once the results are visible.
+ *
+ * If a class data sharing archive exists next to the jar (as created by
+ * {@code ant cds-archive}), every run is done with and without it.
+ *
+ * This needs a display, since the real window is shown.
+ *
+ * Usage: {@code StartupBenchmark <jar> [iterations] [query]}
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class StartupBenchmark {
+
+	private final static Pattern PROBE_OUTPUT =
+			Pattern.compile("startup: window ([0-9.]+) ms, results ([0-9.]+) ms");
+	private final static long RUN_TIMEOUT = 60;
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 1) {
+			System.err.println("Usage: StartupBenchmark <jar> [iterations] [query]");
+			System.exit(1);
+		}
+
+		File jar = new File(args[0]).getAbsoluteFile();
+		int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		String query = (args.length > 2) ? args[2] : "a";
+		File archive = new File(jar.getPath().replaceAll("\\.jar$", ".jsa"));
+
+		// Don't talk to an instance, that might be running for the user
+		Path runtimeDir = Files.createTempDirectory("start-plz-bench");
+		try {
+			measure("without archive", runtimeDir, jar, query, iterations, "-Xshare:auto");
+			if(archive.isFile()) {
+				measure("with archive", runtimeDir, jar, query, iterations,
+						"-XX:SharedArchiveFile=" + archive.getPath(), "-Xshare:auto");
+			} else {
+				System.out.println("No archive found at " + archive + ", run 'ant cds-archive' to create one.");
+			}
+		} finally {
+			for(File f : runtimeDir.toFile().listFiles()) {
+				f.delete();
+			}
+			Files.deleteIfExists(runtimeDir);
+		}
+
+	}
+
+	private static void measure(String name, Path runtimeDir, File jar, String query,
+			int iterations, String... jvmArgs) throws IOException, InterruptedException {
+
+		// The first run fills the file system cache
+		run(runtimeDir, jar, query, jvmArgs);
+
+		double[] window = new double[iterations];
+		double[] results = new double[iterations];
+		for(int i = 0; i < iterations; i++) {
+			double[] times = run(runtimeDir, jar, query, jvmArgs);
+			window[i] = times[0];
+			results[i] = times[1];
+		}
+		Arrays.sort(window);
+		Arrays.sort(results);
+
+		System.out.println(String.format("Startup %s over %d runs:", name, iterations));
+		System.out.println(String.format("  JVM start -> window painted:  min %.1f ms, p50 %.1f ms, max %.1f ms",
+				window[0], window[iterations / 2], window[iterations - 1]));
+		System.out.println(String.format("  JVM start -> results painted: min %.1f ms, p50 %.1f ms, max %.1f ms",
+				results[0], results[iterations / 2], results[iterations - 1]));
+	}
+
+	/**
+	 * Starts a new instance and waits until it has painted the results.
+	 *
+	 * @return The times until the window and until the results have been
+	 *		painted in milliseconds.
+	 */
+	private static double[] run(Path runtimeDir, File jar, String query, String... jvmArgs)
+			throws IOException, InterruptedException {
+
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.addAll(Arrays.asList(jvmArgs));
+		cmd.add("-D" + StartupProbe.PROPERTY + "=exit");
+		cmd.add("-jar");
+		cmd.add(jar.getPath());
+		cmd.add("--closing");
+		cmd.add("--search");
+		cmd.add(query);
+
+		ProcessBuilder builder = new ProcessBuilder(cmd);
+		builder.environment().put("XDG_RUNTIME_DIR", runtimeDir.toString());
+		builder.redirectErrorStream(true);
+		final Process proc = builder.start();
+
+		// Kill the instance, if it never reports its startup
+		Thread watchdog = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if(!proc.waitFor(RUN_TIMEOUT, TimeUnit.SECONDS)) {
+						proc.destroyForcibly();
+					}
+				} catch(InterruptedException ex) {
+					// Nothing to do
+				}
+			}
+		}, "Watchdog");
+		watchdog.setDaemon(true);
+		watchdog.start();
+
+		double[] times = null;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+		String line;
+		while((line = reader.readLine()) != null) {
+			Matcher m = PROBE_OUTPUT.matcher(line);
+			if(m.find()) {
+				times = new double[] { Double.parseDouble(m.group(1)), Double.parseDouble(m.group(2)) };
+			}
+		}
+
+		proc.waitFor();
+		if(times == null) {
+			throw new IllegalStateException("The instance didn't report its startup. "
+					+ "Does the query '" + query + "' have results?");
+		}
+		return times;
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ipc;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+/**
+ * The channel used to talk to the running instance of the application.
+ * This is a Unix domain socket in the user's runtime directory
+ * ({@code $XDG_RUNTIME_DIR}), so every user has their own instance. Without
+ * a runtime directory, a private directory in the temp directory is used, 
+ * that is refused if anybody else could have tampered with it.
+ *
+ * The instance owning the socket holds a lock on a lock file next to it, for
+ * as long as it runs. If a socket file exists, but nobody holds the lock, the
+ * socket has been left over by a crashed instance and will be replaced.
+ *
+ * This class must not use any AWT, Swing or plugin classes, since it is used
+ * by the client, that just forwards its command to the running instance.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class InstanceChannel {
+
+	private final static String SOCKET_NAME = "start-plz.sock";
+	private final static String LOCK_NAME = "start-plz.lock";
+	private final static Set<PosixFilePermission> PRIVATE_PERMISSIONS = 
+			PosixFilePermissions.fromString("rwx------");
+
+	private static FileLock instanceLock;
+
+	private InstanceChannel() { }
+
+	/**
+	 * Returns the directory the socket and lock file are placed in. This is
+	 * {@code $XDG_RUNTIME_DIR}, or if that isn't set a private directory for
+	 * the user in the temp directory.
+	 *
+	 * @return The runtime directory.
+	 */
+	static Path getRuntimeDirectory() {
+		String runtimeDir = getXdgRuntimeDirectory();
+		if(runtimeDir != null) {
+			return Paths.get(runtimeDir);
+		}
+		return Paths.get(System.getProperty("java.io.tmpdir"),
+				"start-plz-" + System.getProperty("user.name"));
+	}
+	
+	private static String getXdgRuntimeDirectory() {
+		String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+		return (runtimeDir != null && !runtimeDir.isEmpty()) ? runtimeDir : null;
+	}
+	
+	/**
+	 * Makes sure the runtime directory can be trusted. {@code $XDG_RUNTIME_DIR}
+	 * is private to the user by definition. The directory in the temp
+	 * directory could have been created by any other user though, to hijack
+	 * or block the socket. So it is only used, if it is a directory (not a
+	 * link) owned by the current user, that only the user can access.
+	 *
+	 * @param create Whether to create the directory, if it doesn't exist.
+	 * @throws IOException If the directory doesn't exist or can't be trusted.
+	 */
+	private static void checkRuntimeDirectory(boolean create) throws IOException {
+		Path runtimeDir = getRuntimeDirectory();
+		FileAttribute<Set<PosixFilePermission>> privateDir =
+				PosixFilePermissions.asFileAttribute(PRIVATE_PERMISSIONS);
+		if(getXdgRuntimeDirectory() != null) {
+			if(create && !Files.isDirectory(runtimeDir)) {
+				Files.createDirectories(runtimeDir, privateDir);
+			}
+			return;
+		}
+		
+		if(create && Files.notExists(runtimeDir, LinkOption.NOFOLLOW_LINKS)) {
+			try {
+				Files.createDirectory(runtimeDir, privateDir);
+			} catch(FileAlreadyExistsException ex) {
+				// Somebody else was faster, the checks below decide whether to use it
+			}
+		}
+		PosixFileAttributes attrs = Files.readAttributes(runtimeDir, 
+				PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		UserPrincipal user = runtimeDir.getFileSystem().getUserPrincipalLookupService()
+				.lookupPrincipalByName(System.getProperty("user.name"));
+		if(!attrs.isDirectory() || !attrs.owner().equals(user) 
+				|| !attrs.permissions().equals(PRIVATE_PERMISSIONS)) {
+			throw new IOException("Refusing to use " + runtimeDir 
+					+ ", since it isn't a directory only accessible by " + user.getName());
+		}
+	}
+
+	/**
+	 * @return The path of the socket file.
+	 */
+	public static Path getSocketPath() {
+		return getRuntimeDirectory().resolve(SOCKET_NAME);
+	}
+
+	/**
+	 * @return The path of the lock file.
+	 */
+	public static Path getLockPath() {
+		return getRuntimeDirectory().resolve(LOCK_NAME);
+	}
+
+	/**
+	 * Connects to the running instance.
+	 *
+	 * @return A connected channel to the running instance.
+	 * @throws IOException If no instance is running or the runtime directory
+	 *		can't be trusted.
+	 */
+	public static SocketChannel connect() throws IOException {
+		checkRuntimeDirectory(false);
+		SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.connect(UnixDomainSocketAddress.of(getSocketPath()));
+			return channel;
+		} catch(IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Binds the socket for the running instance. This will first acquire the
+	 * lock file, and remove any stale socket file left behind by an instance
+	 * that didn't exit cleanly. The lock is held until the JVM exits.
+	 *
+	 * @return The bound server channel.
+	 * @throws IOException If another instance holds the lock, the socket
+	 *		couldn't be bound or the runtime directory can't be trusted.
+	 */
+	public static ServerSocketChannel bind() throws IOException {
+
+		checkRuntimeDirectory(true);
+
+		// If we already hold the lock (i.e. the socket is bound again after an
+		// error) we don't need to acquire it again.
+		FileLock lock = instanceLock;
+		if(lock == null || !lock.isValid()) {
+			FileChannel lockChannel = FileChannel.open(getLockPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			lock = lockChannel.tryLock();
+			if(lock == null) {
+				lockChannel.close();
+				throw new IOException("Another instance holds the lock " + getLockPath());
+			}
+			// Keep the lock referenced, so it won't be released before exiting.
+			instanceLock = lock;
+		}
+
+		// We own the lock, so any existing socket file is stale.
+		final Path socketPath = getSocketPath();
+		Files.deleteIfExists(socketPath);
+
+		ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+		} catch(IOException ex) {
+			server.close();
+			throw ex;
+		}
+
+		// The lock file itself stays, only the socket file is removed on exit.
+		socketPath.toFile().deleteOnExit();
+
+		return server;
+	}
+
+}
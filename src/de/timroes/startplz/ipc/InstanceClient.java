@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ipc;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * The client side of the single instance channel. It forwards the invocation
+ * to the running instance, if there is one.
+ *
+ * This class is used before it is known whether a new instance needs to be
+ * started, so it must not use any AWT, Swing, Guava or plugin classes (and
+ * not even the application's logging), to keep that path as short as possible.
+ *
+ * Supported arguments are:
+ * <ul>
+ *	<li>{@code --hide}: Hide the search window.</li>
+ *	<li>{@code --search <query>}: Show the search window searching for the query.</li>
+ *	<li>{@code --refresh}: Refresh all plugins and wait until that's done.</li>
+ *	<li>{@code --quit}: Quit the running instance.</li>
+ *	<li>{@code --query <query> [--json]}: Print the results for the query
+ *		without showing the window, one result per line (title, subtitle and
+ *		plugin separated by tabs) or as a JSON array.</li>
+ *	<li>{@code --stats}: Print the search and refresh metrics of all plugins.</li>
+ * </ul>
+ * Without any of these, the search window will be shown.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class InstanceClient {
+	
+	/**
+	 * Returned by {@link #run(java.lang.String[])} if no instance is running.
+	 */
+	public final static int NOT_RUNNING = -1;
+	
+	private InstanceClient() { }
+	
+	/**
+	 * Forwards the invocation to the running instance.
+	 * 
+	 * @param args The command line arguments.
+	 * @return {@link #NOT_RUNNING} if no instance is running, otherwise
+	 *		the exit code for this invocation.
+	 */
+	public static int run(String[] args) {
+		
+		Protocol.Frame request = createRequest(args);
+		
+		SocketChannel channel;
+		try {
+			channel = InstanceChannel.connect();
+		} catch(IOException ex) {
+			return NOT_RUNNING;
+		}
+		
+		try {
+			Protocol.write(channel, request);
+			// Showing and hiding the window should be as fast as possible,
+			// so don't wait for the answer.
+			if(!waitsForAnswer(request)) {
+				return 0;
+			}
+			if(request.getOpcode() == Protocol.QUERY) {
+				return printResults(channel, Arrays.asList(args).contains("--json"));
+			}
+			Protocol.Frame answer = Protocol.read(channel);
+			if(answer.getOpcode() == Protocol.ERROR) {
+				System.err.println(answer.getPayload());
+				return 1;
+			}
+			if(!answer.getPayload().isEmpty()) {
+				System.out.println(answer.getPayload());
+			}
+			return 0;
+		} catch(IOException ex) {
+			System.err.println("Communication with running instance failed: " + ex.getMessage());
+			return 1;
+		} finally {
+			try {
+				channel.close();
+			} catch(IOException ex) {
+				// Nothing we can do here
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether the arguments only make sense for an already running
+	 * instance, so no new instance should be started for them.
+	 * 
+	 * @param args The command line arguments.
+	 * @return Whether the arguments need a running instance.
+	 */
+	public static boolean needsRunningInstance(String[] args) {
+		byte opcode = createRequest(args).getOpcode();
+		return opcode == Protocol.HIDE || opcode == Protocol.REFRESH || opcode == Protocol.QUIT
+				|| opcode == Protocol.QUERY || opcode == Protocol.STATS;
+	}
+	
+	/**
+	 * Returns the query passed with {@code --search}.
+	 * 
+	 * @param args The command line arguments.
+	 * @return The query or {@code null} if none was passed.
+	 */
+	public static String getSearchQuery(String[] args) {
+		Protocol.Frame request = createRequest(args);
+		return (request.getOpcode() == Protocol.SHOW_QUERY) ? request.getPayload() : null;
+	}
+	
+	/**
+	 * Reads the results of a query until the instance has finished sending
+	 * them, and prints each as soon as it arrives.
+	 */
+	private static int printResults(SocketChannel channel, boolean json) throws IOException {
+		StringBuilder out = new StringBuilder();
+		if(json) {
+			System.out.print("[");
+		}
+		int count = 0;
+		Protocol.Frame frame;
+		while((frame = Protocol.read(channel)).getOpcode() == Protocol.RESULT) {
+			String[] fields = Protocol.splitFields(frame.getPayload(), 4);
+			out.setLength(0);
+			if(json) {
+				out.append(count > 0 ? ",\n" : "\n");
+				out.append("  {\"plugin\": ").append(quote(fields[0]));
+				out.append(", \"weight\": ").append(fields[1]);
+				out.append(", \"title\": ").append(quote(fields[2]));
+				out.append(", \"subtitle\": ").append(quote(fields[3])).append('}');
+			} else {
+				out.append(fields[2]).append('\t').append(fields[3]).append('\t').append(fields[0]).append('\n');
+			}
+			System.out.print(out);
+			count++;
+		}
+		if(json) {
+			System.out.println(count > 0 ? "\n]" : "]");
+		}
+		System.out.flush();
+		if(frame.getOpcode() == Protocol.ERROR) {
+			System.err.println(frame.getPayload());
+			return 1;
+		}
+		return 0;
+	}
+	
+	private static String quote(String value) {
+		StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if(c < 0x20) {
+				builder.append(String.format("\\u%04x", (int)c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+	
+	private static boolean waitsForAnswer(Protocol.Frame request) {
+		byte opcode = request.getOpcode();
+		return opcode != Protocol.SHOW && opcode != Protocol.HIDE && opcode != Protocol.SHOW_QUERY;
+	}
+	
+	private static Protocol.Frame createRequest(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			if("--hide".equals(args[i])) {
+				return new Protocol.Frame(Protocol.HIDE);
+			} else if("--refresh".equals(args[i])) {
+				return new Protocol.Frame(Protocol.REFRESH);
+			} else if("--quit".equals(args[i])) {
+				return new Protocol.Frame(Protocol.QUIT);
+			} else if("--stats".equals(args[i])) {
+				return new Protocol.Frame(Protocol.STATS);
+			} else if("--search".equals(args[i]) && i + 1 < args.length) {
+				return new Protocol.Frame(Protocol.SHOW_QUERY, args[i + 1]);
+			} else if("--query".equals(args[i]) && i + 1 < args.length) {
+				return new Protocol.Frame(Protocol.QUERY, args[i + 1]);
+			}
+		}
+		return new Protocol.Frame(Protocol.SHOW);
+	}
+	
+}
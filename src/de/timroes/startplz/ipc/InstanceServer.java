@@ -0,0 +1,403 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ipc;
+
+import de.timroes.startplz.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The server side of the {@link InstanceChannel}. A single thread serves all
+ * connections with a {@link Selector}, so a slow or stuck client can't block
+ * other clients. Every connection, that has no request in progress and has been
+ * idle for {@link #CONNECTION_TIMEOUT} milliseconds, will be closed.
+ *
+ * Requests are passed to the {@link Handler}, which must not block, but answer
+ * through {@link Connection#send(Protocol.Frame)} from any thread.
+ *
+ * If the server socket fails, the server closes all connections and binds
+ * the socket again after a short delay.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class InstanceServer {
+
+	public final static long CONNECTION_TIMEOUT = 5000;
+
+	private final static long SELECT_TIMEOUT = 1000;
+	private final static long MIN_RECOVERY_DELAY = 500;
+	private final static long MAX_RECOVERY_DELAY = 30000;
+	private final static int READ_BUFFER_SIZE = 4096;
+
+	/**
+	 * Handles requests of clients.
+	 */
+	public interface Handler {
+
+		/**
+		 * Handles a request. This is called from the server thread, so it must
+		 * return quickly. The answer can be sent later from any thread.
+		 *
+		 * @param request The request.
+		 * @param connection The connection to answer to.
+		 */
+		void handleRequest(Protocol.Frame request, Connection connection);
+
+	}
+
+	private final Handler handler;
+	private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+
+	private volatile ServerSocketChannel server;
+	private volatile Selector selector;
+	private volatile boolean running;
+
+	public InstanceServer(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Binds the socket and starts the server thread.
+	 *
+	 * @throws IOException If the socket couldn't be bound (e.g. because
+	 *		another instance is running).
+	 */
+	public void start() throws IOException {
+		server = InstanceChannel.bind();
+		running = true;
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "SingleInstanceServer");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Stops the server and closes all connections.
+	 */
+	public void stop() {
+		running = false;
+		Selector s = selector;
+		if(s != null) {
+			s.wakeup();
+		}
+	}
+
+	private void serve() {
+		long recoveryDelay = MIN_RECOVERY_DELAY;
+		while(running) {
+			long servingSince = -1;
+			try {
+				if(server == null || !server.isOpen()) {
+					server = InstanceChannel.bind();
+					Log.d("Single instance server socket bound again.");
+				}
+				selector = Selector.open();
+				server.configureBlocking(false);
+				server.register(selector, SelectionKey.OP_ACCEPT);
+				servingSince = System.currentTimeMillis();
+				loop();
+			} catch(IOException ex) {
+				Log.w("Single instance server socket error", ex);
+				closeServer();
+			} catch(RuntimeException ex) {
+				// E.g. a cancelled key or a broken frame. Don't let that end 
+				// the server thread, but start over with a new socket.
+				Log.e("Single instance server failed", ex);
+				closeServer();
+			} finally {
+				closeAll();
+			}
+			// Only back off further, if the server fails again right away
+			if(servingSince >= 0 && System.currentTimeMillis() - servingSince > MAX_RECOVERY_DELAY) {
+				recoveryDelay = MIN_RECOVERY_DELAY;
+			}
+			if(running) {
+				// Wait some time before trying to bind the socket again
+				try {
+					Thread.sleep(recoveryDelay);
+				} catch(InterruptedException ex) {
+					return;
+				}
+				recoveryDelay = Math.min(MAX_RECOVERY_DELAY, recoveryDelay * 2);
+			}
+		}
+	}
+
+	private void loop() throws IOException {
+		while(running) {
+			selector.select(SELECT_TIMEOUT);
+
+			// Register write interest for connections, that got new frames to send
+			Connection dirty;
+			while((dirty = pendingWrites.poll()) != null) {
+				SelectionKey key = dirty.channel.keyFor(selector);
+				if(key != null && key.isValid()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) {
+					continue;
+				}
+				if(key.isAcceptable()) {
+					accept();
+				} else {
+					Connection conn = (Connection)key.attachment();
+					try {
+						if(key.isReadable()) {
+							conn.read();
+						}
+						if(key.isValid() && key.isWritable()) {
+							conn.write(key);
+						}
+					} catch(IOException ex) {
+						Log.d("Closing connection: %s", ex.getMessage());
+						conn.close();
+					}
+				}
+			}
+
+			closeTimedOutConnections();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel client = server.accept();
+		if(client == null) {
+			return;
+		}
+		client.configureBlocking(false);
+		Connection conn = new Connection(client);
+		client.register(selector, SelectionKey.OP_READ, conn);
+	}
+
+	private void closeTimedOutConnections() {
+		long now = System.nanoTime();
+		for(SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			Object attachment = key.attachment();
+			if(attachment instanceof Connection) {
+				Connection conn = (Connection)attachment;
+				if(conn.pendingRequests.get() == 0 && conn.pendingFrames.isEmpty()
+						&& now - conn.lastActivity > TimeUnit.MILLISECONDS.toNanos(CONNECTION_TIMEOUT)) {
+					Log.d("Closing idle connection.");
+					conn.close();
+				}
+			}
+		}
+	}
+
+	private void closeAll() {
+		Selector s = selector;
+		if(s != null) {
+			for(SelectionKey key : s.keys()) {
+				try {
+					key.channel().close();
+				} catch(IOException ex) {
+					// Nothing we can do here
+				}
+			}
+			try {
+				s.close();
+			} catch(IOException ex) {
+				// Nothing we can do here
+			}
+		}
+		if(!running) {
+			closeServer();
+		}
+	}
+	
+	private void closeServer() {
+		ServerSocketChannel s = server;
+		server = null;
+		if(s != null) {
+			try {
+				s.close();
+			} catch(IOException ex) {
+				// Nothing we can do here
+			}
+		}
+	}
+
+	/**
+	 * A connection of a client to the server.
+	 */
+	public class Connection {
+
+		private final SocketChannel channel;
+		private final Queue<PendingFrame> pendingFrames = new ConcurrentLinkedQueue<PendingFrame>();
+		private final AtomicInteger pendingFrameCount = new AtomicInteger();
+		private final AtomicInteger pendingRequests = new AtomicInteger();
+		private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private volatile long lastActivity = System.nanoTime();
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Sends a frame to the client. This may be called from any thread.
+		 *
+		 * @param frame The frame to send.
+		 */
+		public void send(Protocol.Frame frame) {
+			send(frame, null);
+		}
+
+		/**
+		 * Sends a frame to the client. This may be called from any thread.
+		 * If the frame answers a request (i.e. it is an {@link Protocol#OK} or
+		 * {@link Protocol#ERROR} frame), the request is considered finished.
+		 *
+		 * @param frame The frame to send.
+		 * @param onSent Will be run on the server thread, after the frame has
+		 *		been written completely. May be {@code null}.
+		 */
+		public void send(Protocol.Frame frame, Runnable onSent) {
+			if(!channel.isOpen()) {
+				return;
+			}
+			pendingFrames.add(new PendingFrame(frame.encode(), onSent));
+			pendingFrameCount.incrementAndGet();
+			if(frame.getOpcode() == Protocol.OK || frame.getOpcode() == Protocol.ERROR) {
+				pendingRequests.decrementAndGet();
+			}
+			pendingWrites.add(this);
+			Selector s = selector;
+			if(s != null) {
+				s.wakeup();
+			}
+		}
+
+		/**
+		 * Waits until at most the given number of frames are waiting to be
+		 * written. Threads sending many frames should call this regularly, so
+		 * the frames don't pile up faster than the client reads them. This must
+		 * not be called from the server thread.
+		 *
+		 * @param maxPending The number of frames, that may still be waiting.
+		 * @return Whether the connection is still open.
+		 * @throws InterruptedException If the thread has been interrupted while waiting.
+		 */
+		public boolean awaitPendingFrames(int maxPending) throws InterruptedException {
+			synchronized(this) {
+				// The connection might be closed without notifying, so check regularly
+				while(channel.isOpen() && pendingFrameCount.get() > maxPending) {
+					wait(SELECT_TIMEOUT);
+				}
+			}
+			return channel.isOpen();
+		}
+
+		private void read() throws IOException {
+			int read = channel.read(readBuffer);
+			if(read < 0) {
+				close();
+				return;
+			}
+			lastActivity = System.nanoTime();
+
+			readBuffer.flip();
+			Protocol.Frame frame;
+			while((frame = Protocol.decode(readBuffer)) != null) {
+				pendingRequests.incrementAndGet();
+				try {
+					handler.handleRequest(frame, this);
+				} catch(RuntimeException ex) {
+					Log.w("Could not handle request " + frame, ex);
+					send(new Protocol.Frame(Protocol.ERROR, String.valueOf(ex.getMessage())));
+				}
+			}
+			readBuffer.compact();
+
+			// Grow the buffer, if a frame doesn't fit into it.
+			if(!readBuffer.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2,
+						Protocol.MAX_FRAME_SIZE + 4));
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+		}
+
+		private void write(SelectionKey key) throws IOException {
+			try {
+				PendingFrame pending;
+				while((pending = pendingFrames.peek()) != null) {
+					channel.write(pending.data);
+					if(pending.data.hasRemaining()) {
+						// Socket buffer is full, wait until it is writable again
+						return;
+					}
+					pendingFrames.poll();
+					pendingFrameCount.decrementAndGet();
+					lastActivity = System.nanoTime();
+					if(pending.onSent != null) {
+						pending.onSent.run();
+					}
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			} finally {
+				synchronized(this) {
+					notifyAll();
+				}
+			}
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch(IOException ex) {
+				// Nothing we can do here
+			}
+			synchronized(this) {
+				notifyAll();
+			}
+		}
+
+	}
+
+	private static class PendingFrame {
+
+		final ByteBuffer data;
+		final Runnable onSent;
+
+		PendingFrame(ByteBuffer data, Runnable onSent) {
+			this.data = data;
+			this.onSent = onSent;
+		}
+
+	}
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ipc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The protocol spoken over the {@link InstanceChannel}. Every message is a
+ * frame consisting of a 4 byte (big endian) length, followed by that many bytes:
+ * a one byte opcode and the UTF-8 encoded payload.
+ *
+ * A client sends request frames. The instance answers every request with
+ * either an {@link #OK} or an {@link #ERROR} frame. A {@link #QUERY} request
+ * is answered with one {@link #RESULT} frame per result before that.
+ * The client may send several requests over the same connection or close it
+ * at any time.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class Protocol {
+
+	/**
+	 * Maximum size of a frame (without the length field).
+	 */
+	public final static int MAX_FRAME_SIZE = 64 * 1024;
+
+	/**
+	 * Separates the fields in the payload of a {@link #RESULT} frame.
+	 */
+	public final static char FIELD_SEPARATOR = '\t';
+
+	/**
+	 * The most {@link #RESULT} frames sent for a {@link #QUERY}.
+	 */
+	public final static int MAX_QUERY_RESULTS = 100;
+
+	private final static int HEADER_SIZE = 4;
+
+	//<editor-fold defaultstate="collapsed" desc="Opcodes">
+	/** Show the search window. */
+	public final static byte SHOW = 1;
+	/** Hide the search window. */
+	public final static byte HIDE = 2;
+	/** Show the search window with the payload as query. */
+	public final static byte SHOW_QUERY = 3;
+	/** Refresh all plugins. Answered when the refresh has finished. */
+	public final static byte REFRESH = 4;
+	/** Quit the running instance. */
+	public final static byte QUIT = 5;
+	/**
+	 * Search for the payload without showing the window. Answered with
+	 * {@link #RESULT} frames for the {@link #MAX_QUERY_RESULTS} most relevant
+	 * results in the order of their relevance, followed by {@link #OK} with
+	 * the number of all results found as payload.
+	 */
+	public final static byte QUERY = 6;
+	/** Answered with the metrics of all plugins as payload. */
+	public final static byte STATS = 7;
+
+	/** The request has been handled. The payload may contain a message. */
+	public final static byte OK = 100;
+	/** The request failed. The payload contains the error message. */
+	public final static byte ERROR = 101;
+	/**
+	 * A single result of a {@link #QUERY}. The payload contains the fields
+	 * plugin, weight, title and subtitle, separated by {@link #FIELD_SEPARATOR}.
+	 */
+	public final static byte RESULT = 102;
+	//</editor-fold>
+
+	private Protocol() { }
+
+	/**
+	 * A single message of the protocol.
+	 */
+	public static final class Frame {
+
+		private final byte opcode;
+		private final String payload;
+
+		public Frame(byte opcode, String payload) {
+			this.opcode = opcode;
+			this.payload = (payload != null) ? payload : "";
+		}
+
+		public Frame(byte opcode) {
+			this(opcode, null);
+		}
+
+		public byte getOpcode() {
+			return opcode;
+		}
+
+		public String getPayload() {
+			return payload;
+		}
+
+		/**
+		 * Encodes this frame, ready to be written to a channel.
+		 *
+		 * @return The encoded frame.
+		 */
+		public ByteBuffer encode() {
+			byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+			if(data.length + 1 > MAX_FRAME_SIZE) {
+				throw new IllegalArgumentException("Payload too large: " + data.length + " bytes");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 1 + data.length);
+			buffer.putInt(1 + data.length);
+			buffer.put(opcode);
+			buffer.put(data);
+			buffer.flip();
+			return buffer;
+		}
+
+		@Override
+		public String toString() {
+			return "Frame{opcode=" + opcode + ", payload=" + payload + "}";
+		}
+
+	}
+
+	/**
+	 * Joins fields to the payload of a frame. Any separator or line break
+	 * inside the fields will be replaced by a space.
+	 *
+	 * @param fields The fields to join. {@code null} fields will be empty.
+	 * @return The payload.
+	 */
+	public static String joinFields(String... fields) {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < fields.length; i++) {
+			if(i > 0) {
+				builder.append(FIELD_SEPARATOR);
+			}
+			if(fields[i] != null) {
+				for(int j = 0; j < fields[i].length(); j++) {
+					char c = fields[i].charAt(j);
+					builder.append((c == FIELD_SEPARATOR || c == '\n' || c == '\r') ? ' ' : c);
+				}
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Splits the payload of a frame into its fields.
+	 *
+	 * @param payload The payload.
+	 * @param count The number of fields expected.
+	 * @return The fields. Missing fields will be empty.
+	 */
+	public static String[] splitFields(String payload, int count) {
+		String[] fields = new String[count];
+		int start = 0;
+		for(int i = 0; i < count; i++) {
+			int end = payload.indexOf(FIELD_SEPARATOR, start);
+			if(end < 0 || i == count - 1) {
+				end = payload.length();
+			}
+			fields[i] = (start <= payload.length()) ? payload.substring(Math.min(start, end), end) : "";
+			start = end + 1;
+		}
+		return fields;
+	}
+
+	/**
+	 * Tries to decode a frame from the start of a buffer. The buffer must be
+	 * in read mode. If it contains a complete frame, its position will be
+	 * moved behind that frame. Otherwise the buffer won't be changed.
+	 *
+	 * @param buffer The buffer to read from.
+	 * @return The decoded frame or {@code null} if the buffer doesn't contain
+	 *		a complete frame yet.
+	 * @throws IOException If the buffer contains an invalid frame.
+	 */
+	public static Frame decode(ByteBuffer buffer) throws IOException {
+		if(buffer.remaining() < HEADER_SIZE) {
+			return null;
+		}
+		int length = buffer.getInt(buffer.position());
+		if(length < 1 || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length " + length);
+		}
+		if(buffer.remaining() < HEADER_SIZE + length) {
+			return null;
+		}
+		buffer.position(buffer.position() + HEADER_SIZE);
+		byte opcode = buffer.get();
+		byte[] data = new byte[length - 1];
+		buffer.get(data);
+		return new Frame(opcode, new String(data, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes a frame to a blocking channel.
+	 *
+	 * @param channel The channel to write to.
+	 * @param frame The frame to write.
+	 * @throws IOException If writing fails.
+	 */
+	public static void write(SocketChannel channel, Frame frame) throws IOException {
+		ByteBuffer buffer = frame.encode();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Reads a frame from a blocking channel.
+	 *
+	 * @param channel The channel to read from.
+	 * @return The frame read.
+	 * @throws IOException If reading fails or the channel has been closed.
+	 */
+	public static Frame read(SocketChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header);
+		int length = header.getInt(0);
+		if(length < 1 || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length " + length);
+		}
+		ByteBuffer body = ByteBuffer.allocate(length);
+		readFully(channel, body);
+		body.flip();
+		byte opcode = body.get();
+		byte[] data = new byte[length - 1];
+		body.get(data);
+		return new Frame(opcode, new String(data, StandardCharsets.UTF_8));
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed by the other side.");
+			}
+		}
+	}
+
+}
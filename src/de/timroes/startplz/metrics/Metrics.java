@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.metrics;
+
+import de.timroes.startplz.Log;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the {@link PluginMetrics} of all plugins. Every plugin's metrics are
+ * registered as MBean {@code de.timroes.startplz:type=Plugin,name=<plugin>},
+ * so they can be watched with any JMX console.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class Metrics {
+
+	//<editor-fold defaultstate="collapsed" desc="Singleton">
+	private static Metrics instance;
+
+	public static synchronized Metrics get() {
+		if(instance == null) {
+			instance = new Metrics();
+		}
+		return instance;
+	}
+	//</editor-fold>
+
+	private final ConcurrentMap<String,PluginMetrics> plugins = new ConcurrentHashMap<String,PluginMetrics>();
+
+	private Metrics() { }
+
+	/**
+	 * Returns the metrics of a plugin, creating and registering them on the
+	 * first call.
+	 *
+	 * @param plugin The plugin class.
+	 * @return The metrics of the plugin.
+	 */
+	public PluginMetrics forPlugin(Class<?> plugin) {
+		String name = plugin.getSimpleName();
+		PluginMetrics metrics = plugins.get(name);
+		if(metrics == null) {
+			PluginMetrics created = new PluginMetrics(name);
+			metrics = plugins.putIfAbsent(name, created);
+			if(metrics == null) {
+				metrics = created;
+				register(created);
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return The metrics of all plugins ordered by name.
+	 */
+	public List<PluginMetrics> getAll() {
+		List<PluginMetrics> all = new ArrayList<PluginMetrics>(plugins.values());
+		Collections.sort(all, new Comparator<PluginMetrics>() {
+			@Override
+			public int compare(PluginMetrics m1, PluginMetrics m2) {
+				return m1.getName().compareTo(m2.getName());
+			}
+		});
+		return all;
+	}
+
+	/**
+	 * Formats the metrics of all plugins as a table, one plugin per line.
+	 * Latencies are in milliseconds.
+	 *
+	 * @return The formatted metrics.
+	 */
+	public String dump() {
+		StringBuilder b = new StringBuilder();
+		b.append(String.format(Locale.ROOT, "%-18s %21s %21s %8s %6s %6s %6s%n", "plugin",
+				"search p50/p95/p99", "search max / count", "results", "errors", "slow", "cached"));
+		for(PluginMetrics m : getAll()) {
+			b.append(String.format(Locale.ROOT, "%-18s %6.1f %6.1f %7.1f %11.1f %9d %8.1f %6d %6d %6d%n",
+					m.getName(),
+					m.getSearchLatencyP50() / 1000.0, m.getSearchLatencyP95() / 1000.0,
+					m.getSearchLatencyP99() / 1000.0, m.getSearchLatencyMax() / 1000.0,
+					m.getSearchCount(), m.getAverageResultCount(),
+					m.getExceptionCount(), m.getTimeoutCount(), m.getCacheHitCount()));
+		}
+		b.append(String.format(Locale.ROOT, "%n%-18s %21s %21s%n", "plugin",
+				"refresh p50/p95/p99", "refresh max / count"));
+		for(PluginMetrics m : getAll()) {
+			b.append(String.format(Locale.ROOT, "%-18s %6.1f %6.1f %7.1f %11.1f %9d%n",
+					m.getName(),
+					m.getRefreshLatencyP50() / 1000.0, m.getRefreshLatencyP95() / 1000.0,
+					m.getRefreshLatencyP99() / 1000.0, m.getRefreshLatencyMax() / 1000.0,
+					m.getRefreshCount()));
+		}
+		return b.toString();
+	}
+
+	private void register(PluginMetrics metrics) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+					new ObjectName("de.timroes.startplz:type=Plugin,name=" + metrics.getName()));
+		} catch(JMException ex) {
+			Log.w("Could not register metrics of %s as MBean.", metrics.getName());
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single plugin: how long searches and refreshes take, how many
+ * results the searches return, how often the plugin fails or exceeds its
+ * time budget, and how often its results have been taken from the cache.
+ * All methods may be called from any thread without locking.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class PluginMetrics implements PluginMetricsMBean {
+
+	private final String name;
+
+	private final LatencyHistogram searchLatency = new LatencyHistogram();
+	private final LatencyHistogram refreshLatency = new LatencyHistogram();
+	private final LongAdder results = new LongAdder();
+	private final LongAdder exceptions = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+
+	PluginMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return The name of the plugin.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Records a search of the plugin.
+	 *
+	 * @param nanos How long the search took in nanoseconds.
+	 * @param resultCount The number of results returned.
+	 */
+	public void recordSearch(long nanos, int resultCount) {
+		searchLatency.record(nanos);
+		results.add(resultCount);
+	}
+
+	/**
+	 * Records a refresh of the plugin.
+	 *
+	 * @param nanos How long the refresh took in nanoseconds.
+	 */
+	public void recordRefresh(long nanos) {
+		refreshLatency.record(nanos);
+	}
+
+	/**
+	 * Records an exception thrown by the plugin.
+	 */
+	public void recordException() {
+		exceptions.increment();
+	}
+
+	/**
+	 * Records a search, that took longer than its time budget.
+	 */
+	public void recordTimeout() {
+		timeouts.increment();
+	}
+
+	/**
+	 * Records a query, that has been answered from the result cache instead
+	 * of searching the plugin.
+	 */
+	public void recordCacheHit() {
+		cacheHits.increment();
+	}
+
+	@Override
+	public long getSearchCount() {
+		return searchLatency.getCount();
+	}
+
+	@Override
+	public long getSearchLatencyP50() {
+		return searchLatency.getPercentile(0.50);
+	}
+
+	@Override
+	public long getSearchLatencyP95() {
+		return searchLatency.getPercentile(0.95);
+	}
+
+	@Override
+	public long getSearchLatencyP99() {
+		return searchLatency.getPercentile(0.99);
+	}
+
+	@Override
+	public long getSearchLatencyMax() {
+		return searchLatency.getMax();
+	}
+
+	@Override
+	public long getRefreshCount() {
+		return refreshLatency.getCount();
+	}
+
+	@Override
+	public long getRefreshLatencyP50() {
+		return refreshLatency.getPercentile(0.50);
+	}
+
+	@Override
+	public long getRefreshLatencyP95() {
+		return refreshLatency.getPercentile(0.95);
+	}
+
+	@Override
+	public long getRefreshLatencyP99() {
+		return refreshLatency.getPercentile(0.99);
+	}
+
+	@Override
+	public long getRefreshLatencyMax() {
+		return refreshLatency.getMax();
+	}
+
+	@Override
+	public long getResultCount() {
+		return results.sum();
+	}
+
+	@Override
+	public double getAverageResultCount() {
+		long searches = getSearchCount();
+		return (searches == 0) ? 0.0 : results.sum() / (double)searches;
+	}
+
+	@Override
+	public long getExceptionCount() {
+		return exceptions.sum();
+	}
+
+	@Override
+	public long getTimeoutCount() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public long getCacheHitCount() {
+		return cacheHits.sum();
+	}
+
+	@Override
+	public void reset() {
+		searchLatency.reset();
+		refreshLatency.reset();
+		results.reset();
+		exceptions.reset();
+		timeouts.reset();
+		cacheHits.reset();
+	}
+
+}
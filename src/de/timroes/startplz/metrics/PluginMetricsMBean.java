@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.metrics;
+
+/**
+ * The management interface of {@link PluginMetrics}. All latencies are in
+ * microseconds.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public interface PluginMetricsMBean {
+
+	long getSearchCount();
+
+	long getSearchLatencyP50();
+
+	long getSearchLatencyP95();
+
+	long getSearchLatencyP99();
+
+	long getSearchLatencyMax();
+
+	long getRefreshCount();
+
+	long getRefreshLatencyP50();
+
+	long getRefreshLatencyP95();
+
+	long getRefreshLatencyP99();
+
+	long getRefreshLatencyMax();
+
+	long getResultCount();
+
+	double getAverageResultCount();
+
+	long getExceptionCount();
+
+	long getTimeoutCount();
+
+	long getCacheHitCount();
+
+	/**
+	 * Clears all metrics.
+	 */
+	void reset();
+
+}
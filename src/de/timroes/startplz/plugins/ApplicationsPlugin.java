@@ -16,18 +16,22 @@
 package de.timroes.startplz.plugins;
 
 import de.timroes.startplz.Log;
+import de.timroes.startplz.Matches;
+import de.timroes.startplz.ParallelScan;
 import de.timroes.startplz.Plugin;
+import de.timroes.startplz.Query;
 import de.timroes.startplz.Result;
+import de.timroes.startplz.plugins.util.DeletionIndex;
 import de.timroes.startplz.plugins.util.IconThemeUtil;
-import java.io.BufferedReader;
+import de.timroes.startplz.plugins.util.IdSet;
+import de.timroes.startplz.plugins.util.ProcessLauncher;
+import de.timroes.startplz.plugins.util.SubstringIndex;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.swing.ImageIcon;
 import org.ini4j.Ini;
 
@@ -38,8 +42,15 @@ import org.ini4j.Ini;
  */
 public class ApplicationsPlugin extends Plugin {
 
-	private List<ApplicationInfo> info = new LinkedList<ApplicationInfo>();
+	private Applications catalog = new Applications(new ArrayList<ApplicationInfo>());
 	private IconThemeUtil iconTheme = new IconThemeUtil();
+	private SubstringIndex wordIndex = new SubstringIndex();
+	private DeletionIndex typoIndex = new DeletionIndex();
+	/**
+	 * The most applications returned for a query. Nobody scrolls further,
+	 * and only systems with a huge number of applications reach it at all.
+	 */
+	private final static int MAX_RESULTS = 1000;
 	private final static String DESKTOP_SECTION = "Desktop Entry";
 	private final static String NAME_ENTRY = "Name";
 	private final static String CMD_ENTRY = "Exec";
@@ -55,19 +66,42 @@ public class ApplicationsPlugin extends Plugin {
 
 	@Override
 	public synchronized void refresh() {
-		info.clear();
+		List<ApplicationInfo> info = new ArrayList<ApplicationInfo>();
 		iconTheme.reload();
 		for(String dir : DESKTOP_FILE_PATHES) {
-			readFromDirectory(new File(dir));
+			readFromDirectory(new File(dir), info);
+		}
+		
+		// Index the words of all searched fields, so every word of a query 
+		// can be found anywhere in them. Index the words of the name and
+		// the executable also for misspelled queries.
+		SubstringIndex words = new SubstringIndex();
+		DeletionIndex index = new DeletionIndex();
+		for(int n = 0; n < info.size(); n++) {
+			ApplicationInfo i = info.get(n);
+			words.add(i.lowerName, n);
+			words.add(i.lowerCmd, n);
+			if(i.lowerComment != null) {
+				words.add(i.lowerComment, n);
+			}
+			index.addAll(i.lowerName, n);
+			String[] cmd = i.lowerCmd.trim().split("\\s+");
+			index.addAll(cmd[0].substring(cmd[0].lastIndexOf('/') + 1), n);
 		}
+		words.build();
+		wordIndex = words;
+		typoIndex = index;
+		// Results, that have already been found, keep on using the old applications
+		catalog = new Applications(info);
 	}
 
 	/**
 	 * Read all desktop files in a specific directory.
 	 *
 	 * @param dir The directory to scan for desktop files.
+	 * @param info The list to add the applications to.
 	 */
-	private void readFromDirectory(File dir) {
+	private void readFromDirectory(File dir, List<ApplicationInfo> info) {
 
 		if(!dir.exists() || !dir.isDirectory()) {
 			return;
@@ -75,7 +109,7 @@ public class ApplicationsPlugin extends Plugin {
 
 		for(File f : dir.listFiles()) {
 			if(f.isDirectory()) {
-				readFromDirectory(f);
+				readFromDirectory(f, info);
 			} else if(f.isFile() && f.canRead() && f.getName().endsWith(".desktop")) {
 				try {
 					// Read desktop file
@@ -96,23 +130,97 @@ public class ApplicationsPlugin extends Plugin {
 		}
 	}
 
+	/**
+	 * The applications are only read when refreshing.
+	 */
+	@Override
+	public long getCacheDuration() {
+		return CACHE_UNTIL_REFRESH;
+	}
+	
+	@Override
+	public synchronized List<? extends Result> search(Query query) {
+		List<Result> results = new ArrayList<Result>();
+		for(ParallelScan.Hit hit : findApplications(query, null, new BitSet())) {
+			results.add(catalog.createResult(hit.index, hit.score));
+		}
+		return results;
+	}
+
+	/**
+	 * Applications are numbered by their position in the list, that is only
+	 * rebuilt when refreshing.
+	 */
+	@Override
+	public boolean isRefinable() {
+		return true;
+	}
+
+	/**
+	 * Only the numbers of the matching applications are returned, their 
+	 * results are created when they are displayed.
+	 */
 	@Override
-	public synchronized List<? extends Result> search(String query) {
+	public synchronized Matches search(Query query, BitSet candidates, BitSet matched) {
+		return new Matches(catalog, findApplications(query, candidates, matched));
+	}
+
+	private List<ParallelScan.Hit> findApplications(final Query query, BitSet candidates, BitSet matched) {
+
+		final List<ApplicationInfo> apps = catalog.info;
 
-		query = query.toLowerCase();
+		// Find the applications containing all words of the query in any order
+		BitSet found = candidates;
+		IdSet containing = wordIndex.lookupAll(query.getTokens());
+		if(containing != null) {
+			found = containing.toBitSet();
+			if(candidates != null) {
+				found.and(candidates);
+			}
+		}
 
-		List<ApplicationResult> result = new LinkedList<ApplicationResult>();
+		List<ParallelScan.Hit> hits = ParallelScan.scan(query, apps.size(), found, matched, 
+				MAX_RESULTS, new ParallelScan.Scorer() {
+			@Override
+			public double score(int index) {
+				ApplicationInfo i = apps.get(index);
+				return getMaximumStringSimilarity(query, i.name, i.cmd, i.comment);
+			}
+		});
 
-		for(ApplicationInfo i : info) {
-			if(i.name.toLowerCase().contains(query) 
-					|| i.cmd.toLowerCase().contains(query)
-					|| (i.comment != null && i.comment.toLowerCase().contains(query))) {
-				result.add(new ApplicationResult(i,
-						getMaximumStringSimilarity(query, i.name, i.cmd, i.comment)));
+		// Add applications, where every word of the query is a possibly 
+		// misspelled word of the application. These aren't added to the
+		// matched applications, since a longer query might not be a misspelling
+		// of them anymore. So they are looked up again for every query.
+		if(!query.isCancelled()) {
+			BitSet typos = typoIndex.lookupAll(query.getTokens());
+			typos.andNot(matched);
+			for(int n = typos.nextSetBit(0); n >= 0 && hits.size() < MAX_RESULTS; n = typos.nextSetBit(n + 1)) {
+				ApplicationInfo i = apps.get(n);
+				hits.add(new ParallelScan.Hit(n, getMaximumStringSimilarity(query, i.name, i.cmd, i.comment)));
 			}
+		} else {
+			query.markIncomplete();
+		}
+		return hits;
+
+	}
+
+	/**
+	 * The applications read by a refresh, numbered by their position.
+	 */
+	private class Applications implements Matches.Catalog {
+
+		final List<ApplicationInfo> info;
+
+		Applications(List<ApplicationInfo> info) {
+			this.info = info;
 		}
 
-		return result;
+		@Override
+		public Result createResult(int entry, double weight) {
+			return new ApplicationResult(info.get(entry), weight);
+		}
 
 	}
 
@@ -125,12 +233,19 @@ public class ApplicationsPlugin extends Plugin {
 		String cmd;
 		String comment;
 		File icon;
+		// Lower case versions for searching, so they don't need to be created per query
+		String lowerName;
+		String lowerCmd;
+		String lowerComment;
 
 		public ApplicationInfo(String name, String cmd, String comment, File icon) {
 			this.name = name;
 			this.cmd = cmd.replaceAll("%[fFuUdDnNickvm]", "");
 			this.comment = comment;
 			this.icon = icon;
+			this.lowerName = name.toLowerCase();
+			this.lowerCmd = this.cmd.toLowerCase();
+			this.lowerComment = (comment != null) ? comment.toLowerCase() : null;
 		}
 		
 	}
@@ -170,56 +285,8 @@ public class ApplicationsPlugin extends Plugin {
 		}
 
 		@Override
-		public void execute() {
-			Thread procThread = new Thread(new Runnable() {
-				
-				@Override
-				public void run() {
-					try {
-						ProcessBuilder builder = new ProcessBuilder(app.cmd.split(" "));
-						builder.redirectErrorStream(true);
-						final Process proc = builder.start();
-						
-						// Read all output of the program and ignore it
-						// If we don't read the ouput the started process might hang, 
-						// because buffers are never emptied
-						Thread outputThread = new Thread(new Runnable() {
-
-							@Override
-							public void run() {
-								try {
-									InputStream stdout = proc.getInputStream();
-									BufferedReader reader = new BufferedReader(new InputStreamReader(stdout));
-									while(reader.readLine() != null) {
-										// ignore line here;
-									}
-								} catch (IOException ex) {
-									// Nothing we can do here
-								}
-							}
-							
-						}, "LogThread for " + app.name);
-						
-						outputThread.setDaemon(true);
-						outputThread.start();
-						
-						try {
-							proc.waitFor();
-						} catch (InterruptedException ex) {
-							// Ignore since we are just in a dirt hack to work
-							// around the buffer problem
-						}
-						
-					} catch (IOException ex) {
-						Log.w("Could not start application.", ex);
-					}
-				}
-				
-			}, "ProcThread for " + app.name);
-			
-			procThread.setDaemon(true);
-			procThread.start();
-
+		public void execute() throws IOException {
+			ProcessLauncher.get().launch(app.name, Arrays.asList(app.cmd.trim().split("\\s+")));
 		}
 	}
 }
@@ -18,6 +18,7 @@ package de.timroes.startplz.plugins;
 import de.congrace.exp4j.Calculable;
 import de.congrace.exp4j.ExpressionBuilder;
 import de.timroes.startplz.Plugin;
+import de.timroes.startplz.Query;
 import de.timroes.startplz.Result;
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
@@ -31,15 +32,37 @@ import javax.swing.ImageIcon;
  */
 public class CalculatorPlugin extends Plugin {
 	
+	/**
+	 * Every expression, that can be calculated, contains at least one digit.
+	 */
 	@Override
-	public List<? extends Result> search(String query) {
+	public boolean accepts(Query query) {
+		String text = query.getText();
+		for(int i = 0; i < text.length(); i++) {
+			if(Character.isDigit(text.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * The result only depends on the expression.
+	 */
+	@Override
+	public long getCacheDuration() {
+		return CACHE_UNTIL_REFRESH;
+	}
+	
+	@Override
+	public List<? extends Result> search(Query query) {
 		
 		List<CalculationResult> result = new ArrayList<CalculationResult>(1);
 		
 		try {
-			Calculable calc = new ExpressionBuilder(query).build();
+			Calculable calc = new ExpressionBuilder(query.getText()).build();
 			double res = calc.calculate();
-			result.add(new CalculationResult(res, query));
+			result.add(new CalculationResult(res, query.getText()));
 		} catch (Exception ex) {
 			// Invalid expression. Don't return any result.
 		}
@@ -17,9 +17,13 @@ package de.timroes.startplz.plugins;
 
 import de.timroes.startplz.Plugin;
 import de.timroes.startplz.PluginManager;
+import de.timroes.startplz.Query;
 import de.timroes.startplz.Result;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.swing.ImageIcon;
 
 /**
@@ -30,10 +34,30 @@ import javax.swing.ImageIcon;
  */
 public class CommandPlugin extends Plugin {
 
+	private final static long REFRESH_TIMEOUT = 120000;
+	
+	private final static Set<String> COMMANDS = new HashSet<String>(Arrays.asList("exit", "refresh"));
+
+	/**
+	 * Only the exact commands have results.
+	 */
+	@Override
+	public boolean accepts(Query query) {
+		return COMMANDS.contains(query.getText());
+	}
+
+	/**
+	 * The commands never change.
+	 */
 	@Override
-	public List<? extends Result> search(String query) {
+	public long getCacheDuration() {
+		return CACHE_UNTIL_REFRESH;
+	}
+	
+	@Override
+	public List<? extends Result> search(Query query) {
 		List<Result> result = new ArrayList<Result>(1);
-		if("exit".equals(query)) {
+		if("exit".equals(query.getText())) {
 			// Typing 'exit' will quit the application.
 			result.add(new Result() {
 				
@@ -63,7 +87,7 @@ public class CommandPlugin extends Plugin {
 				}
 				
 			});
-		} else if("refresh".equals(query)) {
+		} else if("refresh".equals(query.getText())) {
 			// Typing 'refresh' call a manual refresh on all plugins.
 			result.add(new Result() {
 
@@ -91,6 +115,14 @@ public class CommandPlugin extends Plugin {
 				public void execute() {
 					PluginManager.get().refresh();
 				}
+
+				/**
+				 * Refreshing all plugins may take a while.
+				 */
+				@Override
+				public long getExecutionTimeout() {
+					return REFRESH_TIMEOUT;
+				}
 				
 			});
 		}
@@ -17,11 +17,13 @@ package de.timroes.startplz.plugins;
 
 import de.timroes.startplz.Log;
 import de.timroes.startplz.Plugin;
+import de.timroes.startplz.Query;
 import de.timroes.startplz.Result;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import javax.swing.ImageIcon;
 import org.a0z.mpd.MPD;
 import org.a0z.mpd.MPDPlaylist;
@@ -35,12 +37,35 @@ import org.a0z.mpd.Music;
  */
 public class MPDPlugin extends Plugin {
 
+	private final static String MUSIC_PREFIX = "m:";
+	
 	private MPD mpd;
 	private MPDPlaylist playlist;
+	/**
+	 * Whether the server stopped answering. The socket might still look
+	 * connected in that case.
+	 */
+	private volatile boolean connectionLost;
+	/** Whether the last attempt to connect failed already. */
+	private boolean connectFailed;
 	
 	public MPDPlugin() {
 		mpd = new MPD();
-		connect();
+	}
+
+	/**
+	 * Connects to the local mpd server, if not connected yet or the connection
+	 * has been lost. This is never done while searching, so a server, that 
+	 * isn't running, won't slow down searches. Since the plugin isn't
+	 * {@link #isAvailable() available} without a connection, the plugin
+	 * manager will refresh it with an increasing backoff, until the server
+	 * is back.
+	 */
+	@Override
+	public void refresh() {
+		if(connectionLost || !mpd.isConnected()) {
+			connect();
+		}
 	}
 	
 	/**
@@ -48,35 +73,59 @@ public class MPDPlugin extends Plugin {
 	 */
 	private void connect() {
 		try {
+			if(mpd.isConnected()) {
+				try {
+					mpd.disconnect();
+				} catch(MPDServerException ex) {
+					// The connection is broken anyway
+				}
+			}
 			mpd.connect("127.0.0.1");
 			playlist = mpd.getPlaylist();
+			connectionLost = false;
+			connectFailed = false;
 		} catch (MPDServerException ex) {
-			Log.w("Couldn't connect to MPD server.", ex);
+			// A server, that isn't running, is nothing unusual, so only tell once
+			if(connectFailed) {
+				Log.d("Still couldn't connect to MPD server: %s", ex.getMessage());
+			} else {
+				Log.w("Couldn't connect to MPD server.", ex);
+			}
+			connectFailed = true;
 		}
 	}
 	
 	@Override
-	public List<? extends Result> search(String query) {
+	public Set<String> getTriggerPrefixes() {
+		return Collections.singleton(MUSIC_PREFIX);
+	}
+	
+	@Override
+	public boolean isAvailable() {
+		return !connectionLost && mpd.isConnected();
+	}
+	
+	@Override
+	public boolean usesNetwork() {
+		return true;
+	}
+	
+	@Override
+	public List<? extends Result> search(Query query) {
 		
 		List<MPDResult> results = new LinkedList<MPDResult>();
 		
-		// Try to connect if we aren't connected yet.
-		if(!mpd.isConnected()) {
-			connect();
-			if(!mpd.isConnected()) {
-				return results;
-			}
+		// Don't try to connect here, that's done when refreshing. The plugin
+		// manager doesn't ask us while we aren't available, but the
+		// connection might have been lost meanwhile.
+		if(!isAvailable() || !searchPlaylist(query, results)) {
+			return results;
 		}
 		
-		query = query.toLowerCase();
-		boolean musicSearch = false;
-		if(query.startsWith("m:")) {
-			musicSearch = true;
-			query = query.substring(2).trim();
-		}
+		boolean musicSearch = MUSIC_PREFIX.equals(query.getPrefix());
+		int length = query.getText().length();
 		
-		searchPlaylist(query, results);
-		if(query.length() > 5 || (musicSearch && query.length() > 2)) {
+		if(length > 5 || (musicSearch && length > 2)) {
 			// Only search whole library, when query is long enough or if 
 			// user really wanted a music search by entering 'm:' in front
 			// of query.
@@ -86,31 +135,39 @@ public class MPDPlugin extends Plugin {
 		return results;
 	}
 
-	private void searchPlaylist(String query, List<MPDResult> results) {
+	/**
+	 * Searches the current playlist.
+	 * 
+	 * @return Whether the playlist could be loaded from the server.
+	 */
+	private boolean searchPlaylist(Query query, List<MPDResult> results) {
 		
-		// Refresh playlist data from server.
+		// Refresh playlist data from server. If that fails, we aren't available
+		// anymore, so the plugin manager stops asking us until we reconnected.
 		try {
 			playlist.refresh();
 		} catch (MPDServerException ex) {
-			Log.w("Could not load playlist from MPD server.", ex);
-			return;
+			connectionLost = true;
+			Log.w("Lost connection to MPD server: %s", ex.getMessage());
+			return false;
 		}
 
-		query = query.toLowerCase();
+		String text = query.getText();
 		for(Music m : playlist.getMusics()) {
 			// Search for query in artist and title of song
-			if((m.getTitle() != null && m.getTitle().toLowerCase().contains(query))
-						|| (m.getArtist() != null && m.getArtist().toLowerCase().contains(query))) {
+			if((m.getTitle() != null && m.getTitle().toLowerCase().contains(text))
+						|| (m.getArtist() != null && m.getArtist().toLowerCase().contains(text))) {
 				results.add(new MPDResult(m, true, getWeight(m, query)));
 			}
 		}
+		return true;
 		
 	}
 
-	private void searchMusicLibrary(String query, List<MPDResult> results) {
+	private void searchMusicLibrary(Query query, List<MPDResult> results) {
 		
 		try {
-			List<Music> musics = mpd.search("any", query);
+			List<Music> musics = mpd.search("any", query.getText());
 			
 			for(Music m : musics) {
 				boolean isInPlaylist = false;
@@ -140,7 +197,7 @@ public class MPDPlugin extends Plugin {
 	 * @param query The query.
 	 * @return The weight of the given song for that specific query.
 	 */
-	private double getWeight(Music m, String query) {
+	private double getWeight(Music m, Query query) {
 		return getMaximumStringSimilarity(query, m.getTitle(), m.getAlbum(), 
 				m.getArtist(), m.getFilename());
 	}
@@ -184,16 +241,12 @@ public class MPDPlugin extends Plugin {
 		}
 
 		@Override
-		public void execute() {
-			try {
-				if(!inPlaylist) {
-					playlist.add(music);
-					music = playlist.getMusic(playlist.size() - 1);
-				}
-				mpd.skipTo(music.getSongId());
-			} catch (MPDServerException ex) {
-				Log.w("Error skipping to music.", ex);
+		public void execute() throws MPDServerException {
+			if(!inPlaylist) {
+				playlist.add(music);
+				music = playlist.getMusic(playlist.size() - 1);
 			}
+			mpd.skipTo(music.getSongId());
 		}
 		
 	}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.plugins.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds entries containing a word, even if the word has been misspelled.
+ * Every word of the entries is stored together with all variants, that can
+ * be created by deleting up to two of its letters. A misspelled word shares
+ * such a variant with the correct word, so looking up the variants of the
+ * misspelled word finds the correct word without comparing it to every word
+ * of the index (see SymSpell). The words found that way are verified with
+ * their real edit distance.
+ *
+ * How many typos are tolerated depends on the length of the word: none for
+ * words shorter than 4 letters, one for words shorter than 8 letters and two
+ * for longer words. Swapping two adjacent letters counts as one typo.
+ *
+ * Add all words with {@link #add(String, int)}, then only look them up. The
+ * index must not be modified while it is used from several threads.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class DeletionIndex {
+	
+	private final static int MAX_DISTANCE = 2;
+	
+	private final List<String> words = new ArrayList<String>();
+	private final List<BitSet> entries = new ArrayList<BitSet>();
+	private final Map<String,Integer> wordIds = new HashMap<String,Integer>();
+	/** The ids of all words, that a deletion variant has been created from. */
+	private final Map<String,int[]> variants = new HashMap<String,int[]>();
+	
+	/**
+	 * Returns how many typos are tolerated in a word.
+	 * 
+	 * @param length The length of the word.
+	 * @return The maximum edit distance.
+	 */
+	static int maxDistance(int length) {
+		if(length < 4) {
+			return 0;
+		}
+		return (length < 8) ? 1 : MAX_DISTANCE;
+	}
+	
+	/**
+	 * Adds a word of an entry to the index.
+	 * 
+	 * @param word The word in lower case.
+	 * @param entry The id of the entry.
+	 */
+	public void add(String word, int entry) {
+		Integer id = wordIds.get(word);
+		if(id == null) {
+			id = words.size();
+			words.add(word);
+			entries.add(new BitSet());
+			wordIds.put(word, id);
+			for(String variant : deletions(word, maxDistance(word.length()))) {
+				int[] ids = variants.get(variant);
+				if(ids == null) {
+					ids = new int[] { id };
+				} else {
+					ids = Arrays.copyOf(ids, ids.length + 1);
+					ids[ids.length - 1] = id;
+				}
+				variants.put(variant, ids);
+			}
+		}
+		entries.get(id).set(entry);
+	}
+	
+	/**
+	 * Adds all words of a text to the index. Words are separated by 
+	 * everything, that is no letter or digit.
+	 * 
+	 * @param text The text in lower case.
+	 * @param entry The id of the entry.
+	 */
+	public void addAll(String text, int entry) {
+		for(String word : text.split("[^\\p{L}\\p{N}]+")) {
+			if(!word.isEmpty()) {
+				add(word, entry);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the entries containing a word or a word, that the given
+	 * word is a misspelling of.
+	 * 
+	 * @param word The word in lower case.
+	 * @return The ids of the entries.
+	 */
+	public BitSet lookup(String word) {
+		BitSet result = new BitSet();
+		int distance = maxDistance(word.length());
+		BitSet verified = new BitSet();
+		for(String variant : deletions(word, distance)) {
+			int[] ids = variants.get(variant);
+			if(ids == null) {
+				continue;
+			}
+			for(int id : ids) {
+				if(verified.get(id)) {
+					continue;
+				}
+				verified.set(id);
+				String candidate = words.get(id);
+				int allowed = Math.min(distance, maxDistance(candidate.length()));
+				if(editDistance(word, candidate, allowed) <= allowed) {
+					result.or(entries.get(id));
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the entries containing every word of a query, each of them
+	 * possibly misspelled.
+	 * 
+	 * @param words The words in lower case.
+	 * @return The ids of the entries.
+	 */
+	public BitSet lookupAll(List<String> words) {
+		BitSet result = null;
+		for(String word : words) {
+			BitSet found = lookup(word);
+			if(result == null) {
+				result = found;
+			} else {
+				result.and(found);
+			}
+			if(result.isEmpty()) {
+				break;
+			}
+		}
+		return (result != null) ? result : new BitSet();
+	}
+	
+	/**
+	 * Returns the word and all variants of it, that can be created by deleting
+	 * up to {@code distance} letters.
+	 */
+	private static Set<String> deletions(String word, int distance) {
+		Set<String> result = new HashSet<String>();
+		result.add(word);
+		List<String> last = Arrays.asList(word);
+		for(int d = 0; d < distance; d++) {
+			List<String> next = new ArrayList<String>();
+			for(String w : last) {
+				if(w.length() <= 1) {
+					continue;
+				}
+				for(int i = 0; i < w.length(); i++) {
+					String variant = w.substring(0, i).concat(w.substring(i + 1));
+					if(result.add(variant)) {
+						next.add(variant);
+					}
+				}
+			}
+			last = next;
+		}
+		return result;
+	}
+	
+	/**
+	 * Calculates the edit distance of two words, where swapping two adjacent
+	 * letters counts as one edit (optimal string alignment distance).
+	 * 
+	 * @param max The calculation stops, once the distance exceeds this.
+	 * @return The distance or {@code max + 1} if it's larger than {@code max}.
+	 */
+	static int editDistance(String a, String b, int max) {
+		if(Math.abs(a.length() - b.length()) > max) {
+			return max + 1;
+		}
+		int[] prev2 = new int[b.length() + 1];
+		int[] prev = new int[b.length() + 1];
+		int[] cur = new int[b.length() + 1];
+		for(int j = 0; j <= b.length(); j++) {
+			prev[j] = j;
+		}
+		for(int i = 1; i <= a.length(); i++) {
+			cur[0] = i;
+			int rowMin = cur[0];
+			for(int j = 1; j <= b.length(); j++) {
+				int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+				int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+				if(i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+					d = Math.min(d, prev2[j - 2] + 1);
+				}
+				cur[j] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+			if(rowMin > max) {
+				return max + 1;
+			}
+			int[] tmp = prev2;
+			prev2 = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return Math.min(prev[b.length()], max + 1);
+	}
+	
+}
@@ -15,13 +15,25 @@
  */
 package de.timroes.startplz.plugins.util;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.ini4j.Ini;
 
 /**
+ * Looks up icons according to the freedesktop icon theme specification.
+ * The configured icon theme and all themes it inherits from are resolved once
+ * into a flat lookup order, which is only rebuilt if one of the files it has
+ * been built from changes. All methods may be called from several threads.
  *
  * @author Tim Roes <mail@timroes.de>
  */
@@ -29,16 +41,67 @@ public class IconThemeUtil {
 	
 	private final static String[] EXTENSIONS = new String[] { "png", "svg", "xpm" };
 	
-	private final static String ICON_THEME = "hicolor";
+	private final static String FALLBACK_THEME = "hicolor";
 	
-	private List<File> iconBaseDirs = new LinkedList<File>();
-	private List<IconTheme> themes = new LinkedList<IconTheme>();
+	private final static String HOME = System.getProperty("user.home");
 	
-	public void reload() {
+	private final static Pattern GTK2_THEME_PATTERN = 
+			Pattern.compile("^\\s*gtk-icon-theme-name\\s*=\\s*\"?([^\"]*)\"?\\s*$");
+	
+	private List<File> iconBaseDirs = new ArrayList<File>();
+	private List<IconTheme> themes = new ArrayList<IconTheme>();
+	
+	/**
+	 * All files the current lookup order has been built from, mapped to their 
+	 * modification date at the time of building.
+	 */
+	private Map<File,Long> sources = new HashMap<File,Long>();
+	
+	/**
+	 * Icons that have already been found in the current lookup order.
+	 */
+	private Map<String,File> lookupCache = new HashMap<String,File>();
+	
+	/**
+	 * Reloads the icon themes. If none of the files, the current lookup order
+	 * has been built from, has changed since the last call, only the icons
+	 * found so far are forgotten, since icon files might have been replaced.
+	 */
+	public synchronized void reload() {
+		lookupCache.clear();
+		if(!sources.isEmpty() && !haveSourcesChanged()) {
+			return;
+		}
+		sources.clear();
 		reloadIconBaseDirs();
 		reloadThemes();
 	}
 	
+	/**
+	 * Checks whether any of the files the lookup order has been built from
+	 * has been modified, created or deleted.
+	 * 
+	 * @return Whether the themes must be reloaded.
+	 */
+	private boolean haveSourcesChanged() {
+		for(Map.Entry<File,Long> source : sources.entrySet()) {
+			if(source.getKey().lastModified() != source.getValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Remembers a file, the lookup order depends on. If that file changes
+	 * the next call to {@link #reload()} will rebuild the lookup order.
+	 * 
+	 * @param file The file to watch.
+	 */
+	private void watch(File file) {
+		sources.put(file, file.lastModified());
+	}
+	
 	/**
 	 * Adds a directory file to a list. This will only add the file to the list,
 	 * if the file exists and is a directory.
@@ -47,7 +110,9 @@ public class IconThemeUtil {
 	 * @param list The list to add to.
 	 */
 	private void addDirToList(File dir, List<File> list) {
-		if(dir.exists() && dir.isDirectory()) {
+		// Also watch not existing directories, so we notice when they are created.
+		watch(dir);
+		if(dir.exists() && dir.isDirectory() && !list.contains(dir)) {
 			list.add(dir);
 		}
 	}
@@ -57,33 +122,51 @@ public class IconThemeUtil {
 	 */
 	private void reloadIconBaseDirs() {
 		
+		iconBaseDirs.clear();
+		
+		// Load user's icon dir
+		addDirToList(new File(HOME, ".icons"), iconBaseDirs);
+		addDirToList(new File(HOME, ".local/share/icons"), iconBaseDirs);
+		
 		// Load dirs from XDG_DATA_DIRS
 		String xdg_dir_env = System.getenv("XDG_DATA_DIRS");
-		if(xdg_dir_env != null && !xdg_dir_env.isEmpty()) {
-			String[] xdg_dirs = xdg_dir_env.split(":");
-			for(String xdg_dir : xdg_dirs) {
-				addDirToList(new File(xdg_dir, "icons"), iconBaseDirs);
-				addDirToList(new File(xdg_dir, "pixmaps"), iconBaseDirs);
-			}
+		if(xdg_dir_env == null || xdg_dir_env.isEmpty()) {
+			xdg_dir_env = "/usr/local/share/:/usr/share/";
+		}
+		String[] xdg_dirs = xdg_dir_env.split(":");
+		for(String xdg_dir : xdg_dirs) {
+			addDirToList(new File(xdg_dir, "icons"), iconBaseDirs);
+		}
+		for(String xdg_dir : xdg_dirs) {
+			addDirToList(new File(xdg_dir, "pixmaps"), iconBaseDirs);
 		}
-		
-		// Load user's icon dir
-		addDirToList(new File(System.getProperty("user.home"), ".icons"), iconBaseDirs);
-		addDirToList(new File(System.getProperty("user.home"), ".local/share/icons"), iconBaseDirs);
 		
 	}
 	
+	/**
+	 * Builds the lookup order of themes. This is the configured theme followed 
+	 * by all themes it inherits (depth first, every theme only once) and finally
+	 * the hicolor theme.
+	 */
 	private void reloadThemes() {
 		themes.clear();
-		loadTheme(ICON_THEME);
+		Set<String> visited = new HashSet<String>();
+		loadTheme(getConfiguredThemeName(), visited);
+		loadTheme(FALLBACK_THEME, visited);
 	}
 	
-	private void loadTheme(String themeName) {
+	private void loadTheme(String themeName, Set<String> visited) {
+		
+		themeName = themeName.trim();
+		if(themeName.isEmpty() || !visited.add(themeName)) {
+			return;
+		}
 		
 		File themeIndex = null;
 		for(File iconBaseDir : iconBaseDirs) {
-			themeIndex = new File(iconBaseDir, themeName + File.separator + "index.theme");
-			if(themeIndex.exists() && themeIndex.isFile()) {
+			File index = new File(iconBaseDir, themeName + File.separator + "index.theme");
+			if(index.isFile()) {
+				themeIndex = index;
 				break;
 			}
 		}
@@ -91,16 +174,69 @@ public class IconThemeUtil {
 		if(themeIndex == null) {
 			return;
 		}
+		watch(themeIndex);
 		
 		IconTheme iconTheme = IconTheme.fromIndex(themeIndex);
 		if(iconTheme != null) {
+			iconTheme.resolveDirectories(iconBaseDirs);
 			themes.add(iconTheme);
 			for(String subtheme : iconTheme.inherits) {
-				loadTheme(subtheme);
+				loadTheme(subtheme, visited);
 			}
 		}
 		
+	}
+	
+	/**
+	 * Returns the name of the icon theme the user has configured. This is read
+	 * from the GTK 3 settings, or if not set there from the GTK 2 settings.
+	 * If no theme is configured the hicolor theme will be returned.
+	 * 
+	 * @return The name of the configured icon theme.
+	 */
+	private String getConfiguredThemeName() {
+		
+		String configHome = System.getenv("XDG_CONFIG_HOME");
+		if(configHome == null || configHome.isEmpty()) {
+			configHome = HOME + File.separator + ".config";
+		}
+		
+		File gtk3Settings = new File(configHome, "gtk-3.0" + File.separator + "settings.ini");
+		watch(gtk3Settings);
+		if(gtk3Settings.isFile()) {
+			try {
+				String theme = new Ini(gtk3Settings).get("Settings", "gtk-icon-theme-name");
+				if(theme != null && !theme.trim().isEmpty()) {
+					return theme;
+				}
+			} catch (IOException ex) {
+				// Continue with GTK 2 settings
+			}
+		}
 		
+		File gtk2Settings = new File(HOME, ".gtkrc-2.0");
+		watch(gtk2Settings);
+		if(gtk2Settings.isFile()) {
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new FileReader(gtk2Settings));
+				String line;
+				while((line = reader.readLine()) != null) {
+					Matcher m = GTK2_THEME_PATTERN.matcher(line);
+					if(m.matches() && !m.group(1).trim().isEmpty()) {
+						return m.group(1);
+					}
+				}
+			} catch (IOException ex) {
+				// Use the fallback theme
+			} finally {
+				try {
+					if(reader != null) { reader.close(); }
+				} catch (IOException ex) { }
+			}
+		}
+		
+		return FALLBACK_THEME;
 	}
 	
 	/**
@@ -110,7 +246,7 @@ public class IconThemeUtil {
 	 * @param iconName The name of the icon to look up.
 	 * @return The absolute path of the icon or {@code null}.
 	 */
-	public File getIconPath(String iconName, int iconSize) {
+	public synchronized File getIconPath(String iconName, int iconSize) {
 		if(iconName == null) {
 			return null;
 		}
@@ -120,13 +256,29 @@ public class IconThemeUtil {
 			return i;
 		}
 		
-		// Strip extension from iconName
-		//iconName = iconName.replaceFirst("[.][^.]+$", "");
+		String cacheKey = iconName + "@" + iconSize;
+		File cached = lookupCache.get(cacheKey);
+		if(cached != null) {
+			if(cached.exists()) {
+				return cached;
+			}
+			// The icon has been deleted since, so look it up again
+			lookupCache.remove(cacheKey);
+		}
+		
+		File icon = lookupIcon(iconName, iconSize);
+		if(icon != null) {
+			lookupCache.put(cacheKey, icon);
+		}
+		return icon;
+	}
+	
+	private File lookupIcon(String iconName, int iconSize) {
 		
 		// Lookup icon in theme
 		for(IconTheme theme : themes) {
 			File lookup = lookupIconInTheme(iconName, theme, iconSize);
-			if(lookup != null && lookup.exists()) {
+			if(lookup != null) {
 				return lookup;
 			}
 		}
@@ -146,41 +298,31 @@ public class IconThemeUtil {
 	
 	private File lookupIconInTheme(String iconName, IconTheme theme, int iconSize) {
 		
-	
 		// Try to find an exact match
-		for(IconTheme.Directory subdir : theme.directories) {
-			for(File iconBaseDir : iconBaseDirs) {
-				// Directory of icons
-				File iconDir = new File(iconBaseDir, theme.name + File.separator + subdir.name);
-				if(directoryMatchesSize(subdir, iconSize)) {
-					// Directory has right size, find matching extension
-					for(String ext : EXTENSIONS) {
-						File icon = new File(iconDir, iconName + "." + ext);
-						if(icon.exists()) {
-							return icon;
-						}
+		for(IconTheme.ResolvedDirectory dir : theme.resolved) {
+			if(directoryMatchesSize(dir.directory, iconSize)) {
+				// Directory has right size, find matching extension
+				for(String ext : EXTENSIONS) {
+					File icon = new File(dir.path, iconName + "." + ext);
+					if(icon.exists()) {
+						return icon;
 					}
-				}	
-
+				}
 			}
 		}
-	
 		
 		// Try to find an the best fitting match
 		File best_match = null;
 		int minDistance = Integer.MAX_VALUE;
-		for(IconTheme.Directory subdir : theme.directories) {
-			for(File iconBaseDir : iconBaseDirs) {
-				// Directory of icons
-				File iconDir = new File(iconBaseDir, theme.name + File.separator + subdir.name);
-				int distance = directorySizeDistance(subdir, iconSize);
-				if(distance < minDistance) {
-					for(String ext : EXTENSIONS) {
-						File icon = new File(iconDir, iconName + "." + ext);
-						if(icon.exists()) {
-							best_match = icon;
-							minDistance = distance;
-						}
+		for(IconTheme.ResolvedDirectory dir : theme.resolved) {
+			int distance = directorySizeDistance(dir.directory, iconSize);
+			if(distance < minDistance) {
+				for(String ext : EXTENSIONS) {
+					File icon = new File(dir.path, iconName + "." + ext);
+					if(icon.exists()) {
+						best_match = icon;
+						minDistance = distance;
+						break;
 					}
 				}
 			}
@@ -221,12 +363,14 @@ public class IconThemeUtil {
 				} else if(iconSize > directory.maxSize) {
 					return iconSize - directory.maxSize;
 				}
+				return 0;
 			case TRESHOLD:
 				if(iconSize < directory.size - directory.threshold) {
 					return directory.size - iconSize;
 				} else if(iconSize > directory.size + directory.threshold) {
 					return iconSize - directory.size;
 				}
+				return 0;
 		}
 		return Integer.MAX_VALUE;
 	}
@@ -242,6 +386,12 @@ public class IconThemeUtil {
 		String[] inherits;
 		Directory[] directories;
 		
+		/**
+		 * All directories of this theme, that actually exist in any of the
+		 * icon base directories.
+		 */
+		List<ResolvedDirectory> resolved = new ArrayList<ResolvedDirectory>();
+		
 		private static class Directory {
 			
 			String name;
@@ -253,6 +403,36 @@ public class IconThemeUtil {
 			
 		}
 		
+		private static class ResolvedDirectory {
+			
+			File path;
+			Directory directory;
+			
+			ResolvedDirectory(File path, Directory directory) {
+				this.path = path;
+				this.directory = directory;
+			}
+			
+		}
+		
+		/**
+		 * Looks up in which of the given base directories the subdirectories of
+		 * this theme exist, so icon lookups don't need to check that again.
+		 * 
+		 * @param iconBaseDirs The icon base directories.
+		 */
+		void resolveDirectories(List<File> iconBaseDirs) {
+			resolved.clear();
+			for(Directory subdir : directories) {
+				for(File iconBaseDir : iconBaseDirs) {
+					File path = new File(iconBaseDir, name + File.separator + subdir.name);
+					if(path.isDirectory()) {
+						resolved.add(new ResolvedDirectory(path, subdir));
+					}
+				}
+			}
+		}
+		
 		public static IconTheme fromIndex(File themeIndex) {
 			
 			try {
@@ -305,6 +485,9 @@ public class IconThemeUtil {
 				return theme;
 			} catch (IOException ex) {
 				return null;
+			} catch (RuntimeException ex) {
+				// Malformed index file (e.g. missing directories or invalid sizes)
+				return null;
 			}
 			
 		}
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.plugins.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A compressed set of non-negative ids, that can be intersected fast (a
+ * simplified roaring bitmap). The ids are grouped by their upper 16 bits.
+ * Each group stores its lower 16 bits either as a sorted array, if it has at
+ * most {@link #ARRAY_MAX} ids, or as a bitmap of 65536 bits otherwise. So 
+ * sparse sets need two bytes per id, and dense sets one bit per possible id.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class IdSet {
+	
+	private final static int ARRAY_MAX = 4096;
+	private final static int BITMAP_WORDS = 1 << 10;
+	
+	/** The upper 16 bits of the ids in each container, sorted. */
+	private char[] keys = new char[0];
+	private Container[] containers = new Container[0];
+	private int size;
+	
+	/**
+	 * Adds an id to the set.
+	 * 
+	 * @param id The id.
+	 */
+	public void add(int id) {
+		char key = (char)(id >>> 16);
+		int i = Arrays.binarySearch(keys, 0, size, key);
+		if(i < 0) {
+			i = -i - 1;
+			insert(i, key, new ArrayContainer());
+		}
+		containers[i] = containers[i].add((char)id);
+	}
+	
+	/**
+	 * @param id The id.
+	 * @return Whether the set contains the id.
+	 */
+	public boolean contains(int id) {
+		int i = Arrays.binarySearch(keys, 0, size, (char)(id >>> 16));
+		return i >= 0 && containers[i].contains((char)id);
+	}
+	
+	/**
+	 * @return The number of ids in the set.
+	 */
+	public int cardinality() {
+		int cardinality = 0;
+		for(int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Adds all ids of another set to this set.
+	 * 
+	 * @param other The other set, which won't be modified.
+	 */
+	public void or(IdSet other) {
+		for(int j = 0; j < other.size; j++) {
+			int i = Arrays.binarySearch(keys, 0, size, other.keys[j]);
+			if(i < 0) {
+				// The containers of this set are modified in place, so never share them
+				insert(-i - 1, other.keys[j], other.containers[j].copy());
+			} else {
+				containers[i] = containers[i].or(other.containers[j]);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the ids, that are in this and another set.
+	 * 
+	 * @param other The other set.
+	 * @return A new set, neither of the sets is modified.
+	 */
+	public IdSet and(IdSet other) {
+		IdSet result = new IdSet();
+		int i = 0;
+		int j = 0;
+		while(i < size && j < other.size) {
+			if(keys[i] == other.keys[j]) {
+				Container c = containers[i].and(other.containers[j]);
+				if(c.cardinality() > 0) {
+					result.insert(result.size, keys[i], c);
+				}
+				i++;
+				j++;
+			} else if(keys[i] < other.keys[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return The ids as a {@link BitSet}.
+	 */
+	public BitSet toBitSet() {
+		BitSet result = new BitSet();
+		for(int i = 0; i < size; i++) {
+			containers[i].addTo(result, keys[i] << 16);
+		}
+		return result;
+	}
+	
+	private void insert(int index, char key, Container c) {
+		if(size == keys.length) {
+			int capacity = Math.max(4, 2 * size);
+			keys = Arrays.copyOf(keys, capacity);
+			containers = Arrays.copyOf(containers, capacity);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = c;
+		size++;
+	}
+	
+	/**
+	 * The lower 16 bits of the ids with the same upper 16 bits. Operations, 
+	 * that change a container, return the container to use from then on.
+	 */
+	private static abstract class Container {
+		
+		abstract Container add(char value);
+		
+		abstract boolean contains(char value);
+		
+		abstract int cardinality();
+		
+		/** Returns the union, modifying this container if possible. */
+		abstract Container or(Container other);
+		
+		/** Returns the intersection as a new container. */
+		abstract Container and(Container other);
+		
+		abstract Container copy();
+		
+		abstract void addTo(BitSet set, int base);
+		
+	}
+	
+	private static class ArrayContainer extends Container {
+		
+		private char[] values;
+		private int cardinality;
+
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+		
+		ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		Container add(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if(i >= 0) {
+				return this;
+			}
+			if(cardinality == ARRAY_MAX) {
+				return toBitmap().add(value);
+			}
+			i = -i - 1;
+			if(cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, 2 * cardinality));
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		Container or(Container other) {
+			if(other instanceof BitmapContainer) {
+				return other.copy().or(this);
+			}
+			ArrayContainer o = (ArrayContainer)other;
+			char[] merged = new char[cardinality + o.cardinality];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+			while(i < cardinality || j < o.cardinality) {
+				if(j == o.cardinality || (i < cardinality && values[i] < o.values[j])) {
+					merged[n++] = values[i++];
+				} else if(i == cardinality || o.values[j] < values[i]) {
+					merged[n++] = o.values[j++];
+				} else {
+					merged[n++] = values[i++];
+					j++;
+				}
+			}
+			ArrayContainer result = new ArrayContainer(merged, n);
+			return (n > ARRAY_MAX) ? result.toBitmap() : result;
+		}
+
+		@Override
+		Container and(Container other) {
+			char[] common = new char[cardinality];
+			int n = 0;
+			if(other instanceof BitmapContainer) {
+				for(int i = 0; i < cardinality; i++) {
+					if(other.contains(values[i])) {
+						common[n++] = values[i];
+					}
+				}
+			} else {
+				ArrayContainer o = (ArrayContainer)other;
+				int i = 0;
+				int j = 0;
+				while(i < cardinality && j < o.cardinality) {
+					if(values[i] == o.values[j]) {
+						common[n++] = values[i];
+						i++;
+						j++;
+					} else if(values[i] < o.values[j]) {
+						i++;
+					} else {
+						j++;
+					}
+				}
+			}
+			return new ArrayContainer(common, n);
+		}
+
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+		}
+
+		@Override
+		void addTo(BitSet set, int base) {
+			for(int i = 0; i < cardinality; i++) {
+				set.set(base | values[i]);
+			}
+		}
+		
+		BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer();
+			for(int i = 0; i < cardinality; i++) {
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		}
+		
+	}
+	
+	private static class BitmapContainer extends Container {
+		
+		private final long[] words;
+		private int cardinality;
+
+		BitmapContainer() {
+			this(new long[BITMAP_WORDS], 0);
+		}
+		
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		Container add(char value) {
+			long bit = 1L << value;
+			if((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		Container or(Container other) {
+			if(other instanceof ArrayContainer) {
+				ArrayContainer o = (ArrayContainer)other;
+				for(int i = 0; i < o.cardinality; i++) {
+					add(o.values[i]);
+				}
+				return this;
+			}
+			long[] o = ((BitmapContainer)other).words;
+			int c = 0;
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] |= o[i];
+				c += Long.bitCount(words[i]);
+			}
+			cardinality = c;
+			return this;
+		}
+
+		@Override
+		Container and(Container other) {
+			if(other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			long[] o = ((BitmapContainer)other).words;
+			long[] common = new long[BITMAP_WORDS];
+			int c = 0;
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				common[i] = words[i] & o[i];
+				c += Long.bitCount(common[i]);
+			}
+			if(c > ARRAY_MAX) {
+				return new BitmapContainer(common, c);
+			}
+			// Small intersections are stored as an array again
+			char[] values = new char[c];
+			int n = 0;
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				long w = common[i];
+				while(w != 0) {
+					values[n++] = (char)((i << 6) + Long.numberOfTrailingZeros(w));
+					w &= w - 1;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+
+		@Override
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		@Override
+		void addTo(BitSet set, int base) {
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				long w = words[i];
+				while(w != 0) {
+					set.set(base + (i << 6) + Long.numberOfTrailingZeros(w));
+					w &= w - 1;
+				}
+			}
+		}
+		
+	}
+	
+}
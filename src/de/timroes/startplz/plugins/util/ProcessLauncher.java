@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.plugins.util;
+
+import de.timroes.startplz.Log;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Launches external processes and keeps track of them, while they are running.
+ *
+ * The output of launched processes is discarded by the operating system, so no
+ * thread is needed to read it. Exits of the processes are picked up by the
+ * JVM's shared process reaper (via {@link Process#onExit()}), so a launched
+ * process doesn't cost any thread in this application while it runs.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class ProcessLauncher {
+
+	//<editor-fold defaultstate="collapsed" desc="Singleton">
+	private static ProcessLauncher instance;
+
+	public static synchronized ProcessLauncher get() {
+		if(instance == null) {
+			instance = new ProcessLauncher();
+		}
+		return instance;
+	}
+	//</editor-fold>
+
+	private final Map<Long,LaunchedProcess> running = new ConcurrentHashMap<Long,LaunchedProcess>();
+
+	private final AtomicLong launchCount = new AtomicLong();
+	private final AtomicLong totalLaunchLatency = new AtomicLong();
+	private final AtomicLong maxLaunchLatency = new AtomicLong();
+
+	private ProcessLauncher() { }
+
+	/**
+	 * Launches a process. The process will be started with its output discarded.
+	 *
+	 * @param name A name for the process, used for logging.
+	 * @param command The command and its arguments.
+	 * @return The started process.
+	 * @throws IOException If the process couldn't be started.
+	 */
+	public Process launch(final String name, List<String> command) throws IOException {
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+
+		long start = System.nanoTime();
+		Process proc = builder.start();
+		long latency = System.nanoTime() - start;
+		recordLaunchLatency(latency);
+
+		final LaunchedProcess launched = new LaunchedProcess(name, proc.pid(), System.currentTimeMillis());
+		running.put(launched.pid, launched);
+		Log.d("Launched %s (pid %d) in %d us.", name, launched.pid,
+				TimeUnit.NANOSECONDS.toMicros(latency));
+
+		proc.onExit().thenAccept(new Consumer<Process>() {
+			@Override
+			public void accept(Process p) {
+				running.remove(launched.pid);
+				Log.d("%s (pid %d) exited with code %d.", name, launched.pid, p.exitValue());
+			}
+		});
+
+		return proc;
+	}
+
+	private void recordLaunchLatency(long latency) {
+		launchCount.incrementAndGet();
+		totalLaunchLatency.addAndGet(latency);
+		long max;
+		do {
+			max = maxLaunchLatency.get();
+		} while(latency > max && !maxLaunchLatency.compareAndSet(max, latency));
+	}
+
+	/**
+	 * Returns all processes that have been launched and are still running.
+	 *
+	 * @return The running processes.
+	 */
+	public List<LaunchedProcess> getRunningProcesses() {
+		return new ArrayList<LaunchedProcess>(running.values());
+	}
+
+	/**
+	 * Returns the number of processes launched so far.
+	 *
+	 * @return The number of launches.
+	 */
+	public long getLaunchCount() {
+		return launchCount.get();
+	}
+
+	/**
+	 * Returns the average time it took to start a process.
+	 *
+	 * @return The average launch latency in nanoseconds.
+	 */
+	public long getAverageLaunchLatency() {
+		long count = launchCount.get();
+		return (count == 0) ? 0 : totalLaunchLatency.get() / count;
+	}
+
+	/**
+	 * Returns the longest time it took to start a process.
+	 *
+	 * @return The maximum launch latency in nanoseconds.
+	 */
+	public long getMaxLaunchLatency() {
+		return maxLaunchLatency.get();
+	}
+
+	/**
+	 * Information about a launched process.
+	 */
+	public static class LaunchedProcess {
+
+		private final String name;
+		private final long pid;
+		private final long startTime;
+
+		LaunchedProcess(String name, long pid, long startTime) {
+			this.name = name;
+			this.pid = pid;
+			this.startTime = startTime;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getPid() {
+			return pid;
+		}
+
+		/**
+		 * @return The time the process has been started in milliseconds since epoch.
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.plugins.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the entries containing every word of a query, where a query word may
+ * be any part of a word of the entry. Every distinct word of the entries is
+ * stored once with the {@link IdSet} of the entries containing it. A suffix
+ * array over these words finds all words containing a query word with a
+ * binary search. For a query with several words, the entries of the word
+ * with the fewest matches are looked up first, and intersected with the
+ * entries of the other words one after another, until nothing is left.
+ *
+ * Add all entries with {@link #add(String, int)} and call {@link #build()}
+ * before looking up anything. The index must not be modified afterwards.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class SubstringIndex {
+	
+	private final static char SEPARATOR = '\0';
+	
+	private final List<String> words = new ArrayList<String>();
+	private final List<IdSet> entries = new ArrayList<IdSet>();
+	private final Map<String,Integer> wordIds = new HashMap<String,Integer>();
+	
+	/** All words, each followed by {@link #SEPARATOR}. */
+	private char[] text;
+	/** The position each word starts at in {@link #text}. */
+	private int[] wordStarts;
+	/** The positions in {@link #text}, ordered by the text following them. */
+	private int[] suffixes;
+	
+	/**
+	 * Adds all whitespace separated words of a text to an entry.
+	 * 
+	 * @param text The text in lower case.
+	 * @param entry The id of the entry.
+	 */
+	public void add(String text, int entry) {
+		for(String word : text.split("\\s+")) {
+			if(word.isEmpty()) {
+				continue;
+			}
+			Integer id = wordIds.get(word);
+			if(id == null) {
+				id = words.size();
+				words.add(word);
+				entries.add(new IdSet());
+				wordIds.put(word, id);
+			}
+			entries.get(id).add(entry);
+		}
+	}
+	
+	/**
+	 * Builds the suffix array, after all entries have been added.
+	 */
+	public void build() {
+		StringBuilder b = new StringBuilder();
+		wordStarts = new int[words.size()];
+		for(int i = 0; i < words.size(); i++) {
+			wordStarts[i] = b.length();
+			b.append(words.get(i)).append(SEPARATOR);
+		}
+		text = b.toString().toCharArray();
+		
+		// Only suffixes starting within a word are needed
+		Integer[] sorted = new Integer[text.length - words.size()];
+		int n = 0;
+		for(int i = 0; i < text.length; i++) {
+			if(text[i] != SEPARATOR) {
+				sorted[n++] = i;
+			}
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer s1, Integer s2) {
+				int i = s1;
+				int j = s2;
+				// Every suffix ends with a separator, and no two at the same position
+				while(text[i] == text[j] && text[i] != SEPARATOR) {
+					i++;
+					j++;
+				}
+				return (text[i] != text[j]) ? text[i] - text[j] : s1 - s2;
+			}
+		});
+		suffixes = new int[n];
+		for(int i = 0; i < n; i++) {
+			suffixes[i] = sorted[i];
+		}
+	}
+	
+	/**
+	 * Returns the entries containing a word, that contains the given word.
+	 * 
+	 * @param word The word in lower case without whitespace.
+	 * @return The ids of the entries.
+	 */
+	public IdSet lookup(String word) {
+		return lookup(word, lowerBound(word), upperBound(word));
+	}
+	
+	/**
+	 * Returns the entries containing every word of a query, each of them as
+	 * part of one of its words.
+	 * 
+	 * @param queryWords The words of the query in lower case.
+	 * @return The ids of the entries or {@code null} if the query has no
+	 *		words, so every entry matches.
+	 */
+	public IdSet lookupAll(List<String> queryWords) {
+		if(queryWords.isEmpty()) {
+			return null;
+		}
+		// The number of suffixes starting with a word is known from the
+		// binary search alone, so start with the rarest word.
+		int count = queryWords.size();
+		int[][] ranges = new int[count][];
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++) {
+			String word = queryWords.get(i);
+			ranges[i] = new int[] { lowerBound(word), upperBound(word) };
+			order[i] = i;
+		}
+		final int[][] r = ranges;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return (r[i1][1] - r[i1][0]) - (r[i2][1] - r[i2][0]);
+			}
+		});
+		
+		IdSet result = null;
+		for(int i : order) {
+			IdSet found = lookup(queryWords.get(i), ranges[i][0], ranges[i][1]);
+			result = (result == null) ? found : result.and(found);
+			if(result.isEmpty()) {
+				break;
+			}
+		}
+		return result;
+	}
+	
+	private IdSet lookup(String word, int from, int to) {
+		IdSet result = new IdSet();
+		BitSet seen = new BitSet();
+		for(int i = from; i < to; i++) {
+			int pos = Arrays.binarySearch(wordStarts, suffixes[i]);
+			int id = (pos >= 0) ? pos : -pos - 2;
+			if(!seen.get(id)) {
+				seen.set(id);
+				result.or(entries.get(id));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return The index of the first suffix, that isn't less than the word.
+	 */
+	private int lowerBound(String word) {
+		int low = 0;
+		int high = suffixes.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(compare(suffixes[mid], word) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * @return The index of the first suffix, that is greater than the word
+	 *		and doesn't start with it.
+	 */
+	private int upperBound(String word) {
+		int low = 0;
+		int high = suffixes.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(compare(suffixes[mid], word) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Compares the start of a suffix with a word.
+	 * 
+	 * @return Less than 0 if the suffix is less than the word, 0 if the suffix
+	 *		starts with the word, and greater than 0 otherwise.
+	 */
+	private int compare(int suffix, String word) {
+		for(int k = 0; k < word.length(); k++) {
+			char c = text[suffix + k];
+			if(c != word.charAt(k)) {
+				return c - word.charAt(k);
+			}
+		}
+		return 0;
+	}
+	
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The search field has changed, from receiving the document event until the
+ * result list model has been updated.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+@Name("de.timroes.startplz.Keystroke")
+@Label("Keystroke")
+@Category({ "start-plz", "Query" })
+@Description("A change of the search field handled on the event dispatch thread")
+public class KeystrokeEvent extends Event {
+
+	@Label("Query ID")
+	@Description("Correlates all events of the same query")
+	public long queryId;
+
+	@Label("Query Length")
+	public int queryLength;
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Java Flight Recorder events tracing a query from the keystroke until its
+ * results have been painted. All events of a query share the same query ID.
+ *
+ * The events are only recorded while a recording with them enabled is running
+ * (e.g. {@code jcmd <pid> JFR.start}). Otherwise creating and committing them
+ * costs next to nothing, but code that needs to compute event fields should
+ * check {@link jdk.jfr.Event#isEnabled()} first.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class Trace {
+
+	private final static AtomicLong queryIds = new AtomicLong();
+
+	private Trace() { }
+
+	/**
+	 * @return A new ID for a query.
+	 */
+	public static long nextQueryId() {
+		return queryIds.incrementAndGet();
+	}
+
+}
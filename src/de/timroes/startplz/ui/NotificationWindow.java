@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JWindow;
+import javax.swing.Timer;
+
+/**
+ * A small window shown at the bottom of the screen, to notify the user about
+ * something that happened after the search window has been closed (e.g. a failed
+ * execution). The notification hides itself after a few seconds or when clicked.
+ *
+ * All methods must be called from the event dispatch thread.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class NotificationWindow extends JWindow {
+
+	private final static long serialVersionUID = 1L;
+
+	private final static Color HIGHLIGHT_COLOR = new Color(51, 181, 229);
+	private final static int DISPLAY_TIME = 5000;
+	private final static int WIDTH = 400;
+	private final static int SCREEN_MARGIN = 40;
+
+	private final JLabel title = new JLabel();
+	private final JLabel message = new JLabel();
+	private final Timer hideTimer;
+
+	private Runnable onHide;
+
+	public NotificationWindow() {
+		setType(Type.POPUP);
+		setAlwaysOnTop(true);
+		setFocusableWindowState(false);
+
+		title.setFont(title.getFont().deriveFont(Font.BOLD, title.getFont().getSize() + 2));
+		message.setForeground(Color.GRAY);
+
+		JPanel content = new JPanel(new BorderLayout(0, 4));
+		content.setBackground(Color.WHITE);
+		content.setBorder(BorderFactory.createCompoundBorder(
+				BorderFactory.createMatteBorder(0, 4, 0, 0, HIGHLIGHT_COLOR),
+				BorderFactory.createEmptyBorder(8, 8, 8, 8)));
+		content.add(title, BorderLayout.NORTH);
+		content.add(message, BorderLayout.CENTER);
+		setContentPane(content);
+
+		hideTimer = new Timer(DISPLAY_TIME, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent ae) {
+				hideNotification();
+			}
+		});
+		hideTimer.setRepeats(false);
+
+		content.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent me) {
+				hideNotification();
+			}
+		});
+	}
+
+	/**
+	 * Shows a notification. If another notification is currently shown, it
+	 * will be replaced.
+	 *
+	 * @param titleText The title of the notification.
+	 * @param messageText The message of the notification.
+	 * @param onHide Will be run, when the notification hides. May be {@code null}.
+	 */
+	public void showNotification(String titleText, String messageText, Runnable onHide) {
+		runOnHide();
+		this.onHide = onHide;
+
+		title.setText(titleText);
+		message.setText(messageText);
+		pack();
+		setSize(WIDTH, getHeight());
+
+		// Show notification centered at the bottom of the screen
+		Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+		Dimension size = getSize();
+		setLocation(screen.x + (screen.width - size.width) / 2,
+				screen.y + screen.height - size.height - SCREEN_MARGIN);
+
+		setVisible(true);
+		hideTimer.restart();
+	}
+
+	/**
+	 * Hides the currently shown notification.
+	 */
+	public void hideNotification() {
+		hideTimer.stop();
+		setVisible(false);
+		runOnHide();
+	}
+
+	private void runOnHide() {
+		Runnable r = onHide;
+		onHide = null;
+		if(r != null) {
+			r.run();
+		}
+	}
+
+}
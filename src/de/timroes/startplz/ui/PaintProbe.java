@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ui;
+
+import de.timroes.startplz.trace.ResultPaintEvent;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.RepaintManager;
+
+/**
+ * Measures how long it takes until a change becomes visible on screen. Code
+ * that changes the UI announces the change with {@link #expectPaint(String, long)}.
+ * The next time Swing has finished painting all dirty regions, the listeners
+ * will be informed, that the change has been painted.
+ *
+ * This hooks into the {@link RepaintManager}, since that is the only place
+ * where all painting of the window passes through.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class PaintProbe extends RepaintManager {
+
+	/** The search window has been shown. */
+	public final static String WINDOW = "window";
+	/** New results have been shown in the result list. */
+	public final static String RESULTS = "results";
+
+	/**
+	 * Will be informed about painted changes.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the event dispatch thread, after a change has been painted.
+		 *
+		 * @param event The event passed to {@link #expectPaint(String, long)}.
+		 * @param start The {@link System#nanoTime()} the change started at.
+		 * @param painted The {@link System#nanoTime()} painting finished at.
+		 */
+		void painted(String event, long start, long painted);
+
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Singleton">
+	private static PaintProbe instance;
+
+	/**
+	 * Returns the probe and installs it as the current {@link RepaintManager},
+	 * if that hasn't been done yet.
+	 *
+	 * @return The paint probe.
+	 */
+	public static synchronized PaintProbe get() {
+		if(instance == null) {
+			instance = new PaintProbe();
+			RepaintManager.setCurrentManager(instance);
+		}
+		return instance;
+	}
+	//</editor-fold>
+
+	private final Map<String,Expected> expected = new ConcurrentHashMap<String,Expected>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private PaintProbe() { }
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Announces a change of the UI, that should be reported once it has been
+	 * painted. If the same event is already expected, its start will be replaced.
+	 *
+	 * @param event The name of the event.
+	 * @param start The {@link System#nanoTime()} the change started at.
+	 */
+	public void expectPaint(String event, long start) {
+		expectPaint(event, start, 0);
+	}
+
+	/**
+	 * Announces a change of the UI caused by a query. Painting {@link #RESULTS}
+	 * will be traced with a {@link ResultPaintEvent} for that query.
+	 *
+	 * @param event The name of the event.
+	 * @param start The {@link System#nanoTime()} the change started at.
+	 * @param queryId The ID of the query.
+	 */
+	public void expectPaint(String event, long start, long queryId) {
+		expected.put(event, new Expected(start, queryId));
+	}
+
+	@Override
+	public void paintDirtyRegions() {
+		Expected results = expected.get(RESULTS);
+		ResultPaintEvent paintEvent = null;
+		if(results != null) {
+			paintEvent = new ResultPaintEvent();
+			paintEvent.begin();
+		}
+
+		super.paintDirtyRegions();
+
+		if(expected.isEmpty()) {
+			return;
+		}
+		long painted = System.nanoTime();
+		if(paintEvent != null) {
+			paintEvent.end();
+			if(paintEvent.shouldCommit()) {
+				paintEvent.queryId = results.queryId;
+				paintEvent.sinceKeystroke = painted - results.start;
+				paintEvent.commit();
+			}
+		}
+		Iterator<Map.Entry<String,Expected>> it = expected.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String,Expected> e = it.next();
+			it.remove();
+			for(Listener l : listeners) {
+				l.painted(e.getKey(), e.getValue().start, painted);
+			}
+		}
+	}
+
+	private static class Expected {
+
+		final long start;
+		final long queryId;
+
+		Expected(long start, long queryId) {
+			this.start = start;
+			this.queryId = queryId;
+		}
+
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ui;
+
+import de.timroes.startplz.Result;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+
+/**
+ * The {@link ListCellRenderer} used to display results in the list. Instead of
+ * laying out several nested components, this renderer paints the icon, title
+ * and subtitle of a result directly with a {@link ResultPainter}.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class ResultCellRenderer extends JComponent implements ListCellRenderer<Result> {
+
+	private final static long serialVersionUID = 1L;
+
+	private final ResultPainter painter = new ResultPainter();
+
+	private String title;
+	private String subtitle;
+	private Image icon;
+	private boolean isSelected;
+
+	public ResultCellRenderer() {
+		setOpaque(false);
+	}
+
+	/**
+	 * Returns the height of a rendered cell. This is the same for every result,
+	 * since the icon has a fixed size and the subtitle line is always reserved.
+	 *
+	 * @return The height of every cell.
+	 */
+	public int getCellHeight() {
+		return painter.getCellHeight();
+	}
+
+	@Override
+	public Component getListCellRendererComponent(JList<? extends Result> list, 
+			Result value, int index, boolean isSelected, boolean hasFocus) {
+
+		title = value.getDisplayTitle();
+		subtitle = value.getDisplaySubtitle();
+		ImageIcon image = value.getDisplayIcon();
+		icon = (image != null) ? painter.getScaledIcon(image.getImage()) : null;
+		this.isSelected = isSelected;
+
+		return this;
+	}
+
+	@Override
+	protected void paintComponent(Graphics grphcs) {
+		painter.paint((Graphics2D)grphcs, title, subtitle, icon, isSelected, getWidth(), getHeight());
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Renderer overrides">
+	// Like DefaultListCellRenderer, these are overridden for performance reasons,
+	// since the renderer is never part of a real component hierarchy.
+
+	@Override
+	public void invalidate() { }
+
+	@Override
+	public void validate() { }
+
+	@Override
+	public void revalidate() { }
+
+	@Override
+	public void repaint(long tm, int x, int y, int width, int height) { }
+
+	@Override
+	public void repaint(Rectangle r) { }
+
+	@Override
+	public void repaint() { }
+
+	@Override
+	protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) { }
+	//</editor-fold>
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ui;
+
+import de.timroes.startplz.Result;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.swing.ImageIcon;
+import javax.swing.UIManager;
+
+/**
+ * Paints the icon, title and subtitle of a result directly, instead of
+ * laying out several nested components. Font metrics, clipped texts and
+ * scaled icons are cached, so painting a row mostly consists of drawing.
+ *
+ * A painter isn't a Swing component, so a thread, that owns a painter, may
+ * paint results into an offscreen image with it (see {@link #renderPage(java.awt.Graphics2D, java.util.List, int)}).
+ * The {@link ResultCellRenderer} paints the result list with its own painter.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class ResultPainter {
+
+	private final static Color HIGHLIGHT_COLOR = new Color(51, 181, 229);
+	private final static Color SELECTED_BACKGROUND_COLOR = new Color(235, 235, 235);
+	private final static Color TITLE_COLOR = Color.BLACK;
+	private final static Color SUBTITLE_COLOR = Color.GRAY;
+
+	private final static int PADDING = 4;
+	private final static int ICON_SIZE = 32;
+	private final static int ICON_GAP = 5;
+	private final static int TEXT_GAP = 1;
+
+	private final static int SELECTOR_WIDTH = 2;
+	private final static int SELECTOR_LENGTH_LONG = 40;
+	private final static int SELECTOR_LENGTH_SHORT = 15;
+
+	private final static String ELLIPSIS = "...";
+	private final static int CLIP_CACHE_SIZE = 256;
+
+	private final Font titleFont;
+	private final Font subtitleFont;
+	private final FontMetrics titleMetrics;
+	private final FontMetrics subtitleMetrics;
+	private final Map<?,?> textHints;
+	private final int cellHeight;
+
+	/**
+	 * Clipped texts for the current text width. Keys are prefixed with the
+	 * font they are clipped for.
+	 */
+	private final Map<String,String> clippedTexts = new LinkedHashMap<String,String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+			return size() > CLIP_CACHE_SIZE;
+		}
+	};
+	private int clippedWidth = -1;
+
+	/**
+	 * Icons scaled down to the icon size, by their original image. Since icons
+	 * of the same file share their image, this holds one scaled copy per file.
+	 */
+	private final Map<Image,Image> scaledIcons = new WeakHashMap<Image,Image>();
+
+	public ResultPainter() {
+		Font baseFont = UIManager.getFont("Label.font");
+		if(baseFont == null) {
+			baseFont = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+		}
+		titleFont = baseFont.deriveFont(Font.BOLD, baseFont.getSize() + 5);
+		subtitleFont = baseFont;
+		// Measure the fonts like a component does, without needing one
+		Graphics2D scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+		try {
+			titleMetrics = scratch.getFontMetrics(titleFont);
+			subtitleMetrics = scratch.getFontMetrics(subtitleFont);
+		} finally {
+			scratch.dispose();
+		}
+		textHints = (Map<?,?>)Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+
+		int textHeight = titleMetrics.getHeight() + TEXT_GAP + subtitleMetrics.getHeight();
+		cellHeight = 2 * PADDING + Math.max(ICON_SIZE, textHeight);
+	}
+
+	/**
+	 * Returns the height of a painted row. This is the same for every result,
+	 * since the icon has a fixed size and the subtitle line is always reserved.
+	 *
+	 * @return The height of every row.
+	 */
+	public int getCellHeight() {
+		return cellHeight;
+	}
+
+	/**
+	 * Renders a page of results below each other into the given graphics, the
+	 * same way they would be painted in the result list, with the first one
+	 * selected. This can be used to render results without showing any window.
+	 *
+	 * @param g The graphics to render to.
+	 * @param rows The results to render.
+	 * @param width The width of every row.
+	 */
+	public void renderPage(Graphics2D g, List<? extends Result> rows, int width) {
+		for(int i = 0; i < rows.size(); i++) {
+			Result res = rows.get(i);
+			ImageIcon image = res.getDisplayIcon();
+			Graphics2D cell = (Graphics2D)g.create(0, i * cellHeight, width, cellHeight);
+			try {
+				paint(cell, res.getDisplayTitle(), res.getDisplaySubtitle(),
+						(image != null) ? getScaledIcon(image.getImage()) : null, 
+						i == 0, width, cellHeight);
+			} finally {
+				cell.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Paints a single row.
+	 *
+	 * @param canvas The graphics to paint to, with the origin at the row.
+	 * @param title The title of the result or {@code null}.
+	 * @param subtitle The subtitle of the result or {@code null}.
+	 * @param icon The icon as returned by {@link #getScaledIcon(java.awt.Image)}
+	 *		or {@code null}.
+	 * @param isSelected Whether the row is selected.
+	 * @param width The width of the row.
+	 * @param height The height of the row.
+	 */
+	public void paint(Graphics2D canvas, String title, String subtitle, Image icon,
+			boolean isSelected, int width, int height) {
+
+		// If this cell is selected draw background und selectors.
+		if(isSelected) {
+			canvas.setColor(SELECTED_BACKGROUND_COLOR);
+			canvas.fillRect(0, 0, width, height);
+			canvas.setColor(HIGHLIGHT_COLOR);
+			// Draw left selector
+			canvas.fillRect(0, 0, SELECTOR_LENGTH_LONG, SELECTOR_WIDTH);
+			canvas.fillRect(0, 0, SELECTOR_WIDTH, height);
+			canvas.fillRect(SELECTOR_WIDTH, height - SELECTOR_WIDTH, SELECTOR_LENGTH_SHORT, height);
+			// Draw right selector
+			canvas.fillRect(width - SELECTOR_LENGTH_SHORT, 0, width, SELECTOR_WIDTH);
+			canvas.fillRect(width - SELECTOR_WIDTH, SELECTOR_WIDTH, width, height);
+			canvas.fillRect(width - SELECTOR_LENGTH_LONG, height - SELECTOR_WIDTH, width - SELECTOR_WIDTH, height);
+		}
+
+		// Draw icon vertically centered
+		if(icon != null) {
+			int iconWidth = icon.getWidth(null);
+			int iconHeight = icon.getHeight(null);
+			canvas.drawImage(icon, PADDING + (ICON_SIZE - iconWidth) / 2,
+					(height - iconHeight) / 2, null);
+		}
+
+		// Draw title and subtitle
+		if(textHints != null) {
+			canvas.addRenderingHints(textHints);
+		}
+		int textX = PADDING + ICON_SIZE + ICON_GAP;
+		int textWidth = width - textX - PADDING;
+		int textHeight = titleMetrics.getHeight() + TEXT_GAP + subtitleMetrics.getHeight();
+		int titleY = (height - textHeight) / 2 + titleMetrics.getAscent();
+		int subtitleY = titleY + titleMetrics.getDescent() + titleMetrics.getLeading()
+				+ TEXT_GAP + subtitleMetrics.getAscent();
+
+		if(title != null) {
+			canvas.setFont(titleFont);
+			canvas.setColor(TITLE_COLOR);
+			canvas.drawString(clipText(title, titleMetrics, textWidth), textX, titleY);
+		}
+		if(subtitle != null) {
+			canvas.setFont(subtitleFont);
+			canvas.setColor(SUBTITLE_COLOR);
+			canvas.drawString(clipText(subtitle, subtitleMetrics, textWidth), textX, subtitleY);
+		}
+
+	}
+
+	/**
+	 * Clips a text to the given width, by replacing the end of the text with
+	 * an ellipsis if needed.
+	 *
+	 * @param text The text to clip.
+	 * @param metrics The metrics of the font the text will be drawn with.
+	 * @param width The available width.
+	 * @return The text, that fits into the width.
+	 */
+	private String clipText(String text, FontMetrics metrics, int width) {
+
+		if(width != clippedWidth) {
+			clippedTexts.clear();
+			clippedWidth = width;
+		}
+
+		String key = (metrics == titleMetrics ? "t:" : "s:").concat(text);
+		String clipped = clippedTexts.get(key);
+		if(clipped != null) {
+			return clipped;
+		}
+
+		if(metrics.stringWidth(text) <= width) {
+			clipped = text;
+		} else {
+			// Find the longest prefix that fits together with the ellipsis
+			int available = width - metrics.stringWidth(ELLIPSIS);
+			int low = 0;
+			int high = text.length();
+			while(low < high) {
+				int mid = (low + high + 1) / 2;
+				if(metrics.stringWidth(text.substring(0, mid)) <= available) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			clipped = text.substring(0, low).concat(ELLIPSIS);
+		}
+
+		clippedTexts.put(key, clipped);
+		return clipped;
+	}
+
+	/**
+	 * Returns the icon scaled down to the icon size, if it's larger than that.
+	 *
+	 * @param image The icon image.
+	 * @return The image to draw.
+	 */
+	public Image getScaledIcon(Image image) {
+		if(image.getWidth(null) <= ICON_SIZE && image.getHeight(null) <= ICON_SIZE) {
+			return image;
+		}
+		Image scaled = scaledIcons.get(image);
+		if(scaled == null) {
+			BufferedImage buffer = new BufferedImage(ICON_SIZE, ICON_SIZE, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = buffer.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(image, 0, 0, ICON_SIZE, ICON_SIZE, null);
+			g.dispose();
+			scaled = buffer;
+			scaledIcons.put(image, scaled);
+		}
+		return scaled;
+	}
+
+}
@@ -15,39 +15,35 @@
  */
 package de.timroes.startplz.ui;
 
+import de.timroes.startplz.ExecutionService;
 import de.timroes.startplz.PluginManager;
 import de.timroes.startplz.Result;
-import java.awt.BorderLayout;
+import de.timroes.startplz.SearchResults;
+import de.timroes.startplz.trace.KeystrokeEvent;
+import de.timroes.startplz.trace.ModelUpdateEvent;
+import de.timroes.startplz.trace.Trace;
 import java.awt.CardLayout;
 import java.awt.Color;
-import java.awt.Component;
 import java.awt.Dimension;
-import java.awt.Font;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.KeyEventDispatcher;
 import java.awt.KeyboardFocusManager;
-import java.awt.LayoutManager;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowFocusListener;
 import java.awt.image.BufferedImage;
-import java.util.List;
 import javax.swing.AbstractListModel;
 import javax.swing.BorderFactory;
-import javax.swing.DefaultListCellRenderer;
-import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComponent;
-import javax.swing.JLabel;
-import javax.swing.JList;
-import javax.swing.JPanel;
-import javax.swing.ListCellRenderer;
 import javax.swing.ListModel;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -63,32 +59,40 @@ public final class SearchFrame extends javax.swing.JFrame {
 	
 	private final static Color SEARCH_FOREGROUND_COLOR = Color.BLACK;
 	private final static Color SEARCH_HINT_COLOR = Color.LIGHT_GRAY;
-	private final static Color HIGHLIGHT_COLOR = new Color(51, 181, 229);
 	private final static Color HIGHLIGHT_COLOR_LIGHT = new Color(51, 181, 229, 70);
 	
 	private boolean hasTyped;
+	private boolean ignoreSearchFieldChanges;
+	private boolean exitAfterExecution;
 	
 	private ResultListModel resultListModel = new ResultListModel();
+	private NotificationWindow notificationWindow = new NotificationWindow();
 	private PluginManager pluginManager = PluginManager.get();
+	private ExecutionService executionService = ExecutionService.get();
+	private PaintProbe paintProbe;
 	private DocumentListener searchBoxListener = new DocumentListener() {
 
 		@Override
 		public void insertUpdate(DocumentEvent de) {
-			startSearch();
+			if(!ignoreSearchFieldChanges) {
+				startSearch();
+			}
 		}
 
 		@Override
 		public void removeUpdate(DocumentEvent de) {
 			// Ignore the clearing of the text field, when user starts interacting
 			// with it.
-			if(hasTyped) {
+			if(hasTyped && !ignoreSearchFieldChanges) {
 				startSearch();
 			}
 		}
 
 		@Override
 		public void changedUpdate(DocumentEvent de) {
-			startSearch();
+			if(!ignoreSearchFieldChanges) {
+				startSearch();
+			}
 		}
 	
 	};
@@ -97,6 +101,8 @@ public final class SearchFrame extends javax.swing.JFrame {
 	 * Creates new form SearchFrame
 	 */
 	public SearchFrame() {
+		// Install the paint probe, before any component could be repainted
+		paintProbe = PaintProbe.get();
 		setType(Type.POPUP);
 		setUndecorated(true);
 		initComponents();
@@ -130,31 +136,55 @@ public final class SearchFrame extends javax.swing.JFrame {
 			
 		});
 		
-		// Set cell renderer for result list
-		resultList.setPrototypeCellValue(null);
-		resultList.setCellRenderer(new ResultCellRenderer());
+		// Set cell renderer for result list. All cells have the same height, so
+		// the list never needs to measure the cells. Since the cells of a vertical
+		// list are always stretched to the width of the list, the fixed width only
+		// needs to be small enough, that the list tracks the width of the viewport.
+		ResultCellRenderer renderer = new ResultCellRenderer();
+		resultList.setCellRenderer(renderer);
+		resultList.setFixedCellHeight(renderer.getCellHeight());
+		resultList.setFixedCellWidth(1);
 		
 		// Register a listener to close the window on focus changes
 		addWindowFocusListener(new FocusLostListener());
+		
+		// Report failed executions
+		executionService.addListener(new ExecutionListener());
+		
+		// Size, place and lay out the window once. It stays realized while
+		// it is hidden, so showing it only needs to map it again.
+		setSize(480, 380);
+		setLocationRelativeTo(null);
+		resetState();
+		validate();
+		
+		// Reset the state as soon as the window has been hidden, all at once
+		// in the event dispatch thread.
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentHidden(ComponentEvent ce) {
+				resetState();
+			}
+		});
 	}
 	
 	/**
 	 * Do everything needed to pretend this is a fresh instance.
-	 * Clears the input, results, and center the window again.
+	 * Clears the input and the results. This is done while the window is
+	 * hidden, so showing it again doesn't need to lay out or repaint anything,
+	 * that has changed.
 	 */
-	public void clearInstance() {
+	private void resetState() {
 		
-		// Center and resize screen
-		setSize(480, 380);
-		setLocationRelativeTo(null);
-		
-		// Reset search field
-		// Remove listener, so the clear won't trigger a search
-		searchField.getDocument().removeDocumentListener(searchBoxListener);
-		searchField.setText(DEFAULT_SEARCH_HINT);
+		// Reset search field without triggering a search
+		ignoreSearchFieldChanges = true;
+		try {
+			searchField.setText(DEFAULT_SEARCH_HINT);
+		} finally {
+			ignoreSearchFieldChanges = false;
+		}
 		hasTyped = false;
 		searchField.setForeground(SEARCH_HINT_COLOR);
-		searchField.getDocument().addDocumentListener(searchBoxListener);
 		
 		// Reset result list
 		resultListModel.clear();
@@ -162,6 +192,16 @@ public final class SearchFrame extends javax.swing.JFrame {
 		
 	}
 
+	/**
+	 * Puts a query into the search field and searches for it.
+	 * 
+	 * @param query The query to search for.
+	 */
+	public void setQuery(String query) {
+		clearFieldOnInteraction();
+		searchField.setText(query);
+	}
+
 	/**
 	 * This method is called from within the constructor to initialize the form.
 	 * WARNING: Do NOT modify this code. The content of this method is always
@@ -175,7 +215,7 @@ public final class SearchFrame extends javax.swing.JFrame {
         resultPanel = new javax.swing.JPanel();
         jLabel1 = new javax.swing.JLabel();
         jScrollPane1 = new javax.swing.JScrollPane();
-        resultList = new javax.swing.JList();
+        resultList = new javax.swing.JList<>();
 
         setTitle("start-plz");
 
@@ -254,7 +294,7 @@ public final class SearchFrame extends javax.swing.JFrame {
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JLabel jLabel1;
     private javax.swing.JScrollPane jScrollPane1;
-    private javax.swing.JList resultList;
+    private javax.swing.JList<Result> resultList;
     private javax.swing.JPanel resultPanel;
     private javax.swing.JTextField searchField;
     // End of variables declaration//GEN-END:variables
@@ -283,23 +323,69 @@ public final class SearchFrame extends javax.swing.JFrame {
 	 * Initiates a search for the current query in the search field.
 	 */
 	private void startSearch() {
+		long start = System.nanoTime();
+		long queryId = Trace.nextQueryId();
+		KeystrokeEvent keystrokeEvent = new KeystrokeEvent();
+		keystrokeEvent.begin();
+		
 		// Get search results
-		List<Result> results = pluginManager.search(searchField.getText().trim());
+		String query = searchField.getText().trim();
+		SearchResults results = pluginManager.search(query, queryId);
 
 		// Show either no search results or result list
 		CardLayout cl = (CardLayout)(resultPanel.getLayout());
-		if(results.isEmpty() || searchField.getText().trim().isEmpty()) {
+		if(results.isEmpty() || query.isEmpty()) {
 			cl.show(resultPanel, "NO_RESULTS");
 		} else {
 			cl.show(resultPanel, "RESULT_LIST");
+			paintProbe.expectPaint(PaintProbe.RESULTS, start, queryId);
 		}
 		
 		// Apply new results
+		ModelUpdateEvent modelEvent = new ModelUpdateEvent();
+		modelEvent.begin();
+		int oldSize = resultListModel.getSize();
 		resultListModel.setResults(results);
 		
 		// Select first element and scroll to it.
 		resultList.setSelectedIndex(0);
-		resultList.ensureIndexIsVisible(0);		
+		resultList.ensureIndexIsVisible(0);
+		
+		modelEvent.end();
+		if(modelEvent.shouldCommit()) {
+			modelEvent.queryId = queryId;
+			modelEvent.oldSize = oldSize;
+			modelEvent.newSize = results.size();
+			modelEvent.commit();
+		}
+		keystrokeEvent.end();
+		if(keystrokeEvent.shouldCommit()) {
+			keystrokeEvent.queryId = queryId;
+			keystrokeEvent.queryLength = query.length();
+			keystrokeEvent.commit();
+		}
+		
+		// Search for the next keystroke, while the user reads the results
+		if(!query.isEmpty() && !results.isEmpty()) {
+			pluginManager.prefetch(query, results);
+		}
+	}
+	
+	/**
+	 * Executes a result in the background and hides the window immediately.
+	 * If the application should quit when the window closes, it will only be 
+	 * closed after the execution has finished.
+	 * 
+	 * @param result The result to execute.
+	 */
+	private void executeResult(Result result) {
+		exitAfterExecution = (getDefaultCloseOperation() == EXIT_ON_CLOSE);
+		if(exitAfterExecution) {
+			setVisible(false);
+		} else {
+			closeWindow();
+		}
+		executionService.execute(result);
 	}
 	
 	/**
@@ -339,10 +425,9 @@ public final class SearchFrame extends javax.swing.JFrame {
 						closeWindow();
 						return true;
 					case KeyEvent.VK_ENTER:
-						Object selection = resultList.getSelectedValue();
+						Result selection = resultList.getSelectedValue();
 						if(selection != null) {
-							((Result)selection).execute();
-							closeWindow();
+							executeResult(selection);
 						}
 						return true;
 				}
@@ -355,65 +440,37 @@ public final class SearchFrame extends javax.swing.JFrame {
 	}
 	
 	/**
-	 * The {@link ListCellRenderer} used to display results in the list.
+	 * Listens for executions of results, to notify the user about failures and
+	 * close the application after executions if needed.
 	 */
-	private class ResultCellRenderer extends DefaultListCellRenderer {
-
-		final SelectorPanel panel = new SelectorPanel(new BorderLayout(5, 0));
-		final JPanel iconPanel = new JPanel(new BorderLayout());
-		final JPanel textPanel = new JPanel(new BorderLayout(0, 1));
-		final JLabel title = new JLabel();
-		final JLabel subtitle = new JLabel();
-		final JLabel icon = new JLabel();
+	private class ExecutionListener implements ExecutionService.Listener {
 		
-		public ResultCellRenderer() {
-			
-			// Set fonts of text fieldsnch CMD.EXE, grab stdin/stdout and push to stdin command to b
-			title.setFont(title.getFont().deriveFont(Font.BOLD, title.getFont().getSize() + 5));
-			subtitle.setForeground(Color.GRAY);
-			
-			iconPanel.setOpaque(false);
-			textPanel.setOpaque(false);
-			
-			panel.setBackground(new Color(235, 235, 235));
-			icon.setPreferredSize(new Dimension(32, 32));
-			
-			textPanel.add(title, BorderLayout.NORTH);
-			textPanel.add(subtitle, BorderLayout.SOUTH);
-			panel.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
-			panel.add(icon, BorderLayout.WEST);
-			panel.add(textPanel, BorderLayout.CENTER);
-			
+		private final Runnable closeAfterExecution = new Runnable() {
+			@Override
+			public void run() {
+				if(exitAfterExecution && !isVisible()) {
+					closeWindow();
+				}
+			}
+		};
+
+		@Override
+		public void executionFinished(Result result) {
+			EventQueue.invokeLater(closeAfterExecution);
 		}
 
 		@Override
-		public Component getListCellRendererComponent(JList list, Object value, 
-				int index, boolean isSelected, boolean hasFocus) {
-			
-			Result res = (Result)value;
-			
-			// Set title
-			title.setText(res.getTitle());
-			
-			// Set subtitle
-			String subtext = res.getSubtitle();
-			if(subtext != null) {
-				subtitle.setText(subtext);
-			} else {
-				subtitle.setText(" ");
-			}
-			
-			// Set icon
-			ImageIcon image = res.getIcon();
-			// Scale down icon to 32x32 if it's too large.
-			if(image != null && (image.getIconHeight() > 32 || image.getIconWidth() > 32)) {
-				image.setImage(image.getImage().getScaledInstance(32, 32, Image.SCALE_SMOOTH));
-			}
-			icon.setIcon(image);
-			
-			panel.setSelected(isSelected);
-			
-			return panel;
+		public void executionFailed(final Result result, final Throwable cause) {
+			EventQueue.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					String message = (cause.getMessage() != null) 
+							? cause.getMessage() : cause.getClass().getSimpleName();
+					notificationWindow.showNotification(
+							"Could not execute " + result.getDisplayTitle(), 
+							message, closeAfterExecution);
+				}
+			});
 		}
 		
 	}
@@ -434,86 +491,64 @@ public final class SearchFrame extends javax.swing.JFrame {
 	}
 	
 	/**
-	 * A custom {@link JPanel} implementation, that draws its background, when 
-	 * selected and a pair of custom markers around it.
+	 * The {@link ListModel} used to show the results. When new results are set
+	 * the model compares them to the previous results and only notifies the list
+	 * about the range of rows that actually changed. Rows are compared by the
+	 * entry of the plugin, they show, so no result has to be created for that.
+	 * Results are only fetched with their display data, when the list requests
+	 * a row to show it.
 	 */
-	private class SelectorPanel extends JPanel {
-		
-		private boolean isSelected;
-		
-		private final static int SELECTOR_WIDTH = 2;
-		private final static int SELECTOR_LENGTH_LONG = 40;
-		private final static int SELECTOR_LENGTH_SHORT = 15;
+	private class ResultListModel extends AbstractListModel<Result> {
 
-		public SelectorPanel(LayoutManager lm) {
-			super(lm);
-		}
+		private final static long serialVersionUID = 1L;
 
-		@Override
-		protected void paintComponent(Graphics grphcs) {
-			// If this panel is selected draw background und selectors.
-			if(isSelected) {
-				// Let JPanel draw background
-				super.paintComponent(grphcs);
-				// Get size of panel
-				Dimension size = getSize();
-				int height = size.height;
-				int width = size.width;
-				
-				Graphics2D canvas = (Graphics2D)grphcs;
-				canvas.setColor(HIGHLIGHT_COLOR);
-				// Draw left selector
-				canvas.fillRect(0, 0, SELECTOR_LENGTH_LONG, SELECTOR_WIDTH);
-				canvas.fillRect(0, 0, SELECTOR_WIDTH, height);
-				canvas.fillRect(SELECTOR_WIDTH, height - SELECTOR_WIDTH, SELECTOR_LENGTH_SHORT, height);
-				// Draw right selector
-				canvas.fillRect(width - SELECTOR_LENGTH_SHORT, 0, width, SELECTOR_WIDTH);
-				canvas.fillRect(width - SELECTOR_WIDTH, SELECTOR_WIDTH, width, width);
-				canvas.fillRect(width - SELECTOR_LENGTH_LONG, height - SELECTOR_WIDTH, width - SELECTOR_WIDTH, height);
-			}
-		}
-
-		@Override
-		public Dimension getPreferredSize() {
-			// TODO: Improve this somehow..
-			Dimension d = super.getPreferredSize();
-			if(d.width > jScrollPane1.getViewport().getWidth()) {
-				d.width = jScrollPane1.getViewport().getWidth();
-			}
-			return d;
-		}
-		
-		public void setSelected(boolean selected) {
-			isSelected = selected;
-		}
-		
-	}
-	
-	/**
-	 * The {@link ListModel} used to show the results.
-	 */
-	private class ResultListModel extends AbstractListModel {
-
-		private List<Result> results;
+		private SearchResults results = SearchResults.empty();
 		
 		public void clear() {
-			results = null;
-			fireContentsChanged(this, 0, 0);
+			setResults(SearchResults.empty());
 		}
 		
-		public void setResults(List<Result> results) {
-			this.results = results;
-			fireContentsChanged(this, 0, results.size() - 1);
+		public void setResults(SearchResults newResults) {
+			SearchResults oldResults = results;
+			int oldSize = oldResults.size();
+			int newSize = newResults.size();
+			int minSize = Math.min(oldSize, newSize);
+			
+			// Find the rows at the start and end of the list, that stayed the same
+			int prefix = 0;
+			while(prefix < minSize && newResults.isSameResult(prefix, oldResults, prefix)) {
+				prefix++;
+			}
+			int suffix = 0;
+			while(suffix < minSize - prefix && newResults.isSameResult(newSize - 1 - suffix, 
+					oldResults, oldSize - 1 - suffix)) {
+				suffix++;
+			}
+			
+			results = newResults;
+			
+			// Everything between prefix and suffix has changed
+			int oldEnd = oldSize - suffix;
+			int newEnd = newSize - suffix;
+			int changedEnd = Math.min(oldEnd, newEnd);
+			if(changedEnd > prefix) {
+				fireContentsChanged(this, prefix, changedEnd - 1);
+			}
+			if(oldEnd > newEnd) {
+				fireIntervalRemoved(this, newEnd, oldEnd - 1);
+			} else if(newEnd > oldEnd) {
+				fireIntervalAdded(this, oldEnd, newEnd - 1);
+			}
 		}
 		
 		@Override
 		public int getSize() {
-			return (results != null) ? results.size() : 0;
+			return results.size();
 		}
 
 		@Override
-		public Object getElementAt(int i) {
-			return (results != null) ? results.get(i) : null;
+		public Result getElementAt(int i) {
+			return results.get(i);
 		}
 		
 	}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ui;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Reports how long the startup of a new instance took: from the start of the
+ * JVM until the window has been painted, and until the first results have
+ * been painted. The instance must be started with {@code --search <query>}
+ * for a query that has results.
+ *
+ * The probe is enabled with the system property {@link #PROPERTY}. If its
+ * value is {@code exit}, the application exits once both times are known.
+ * The times are printed to stdout in the form
+ * {@code startup: window <ms> ms, results <ms> ms}.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class StartupProbe implements PaintProbe.Listener {
+
+	public final static String PROPERTY = "startplz.startupProbe";
+
+	private final long jvmStart;
+	private final boolean exit;
+	private long windowPainted = -1;
+	private long resultsPainted = -1;
+
+	private StartupProbe(long jvmStart, boolean exit) {
+		this.jvmStart = jvmStart;
+		this.exit = exit;
+	}
+
+	/**
+	 * Installs the probe, if it has been enabled by the system property.
+	 */
+	public static void installIfEnabled() {
+		String value = System.getProperty(PROPERTY);
+		if(value == null) {
+			return;
+		}
+		// The JVM start time is only known in milliseconds since epoch, so
+		// translate it to the clock used by the paint probe.
+		long sinceStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+		long jvmStart = System.nanoTime() - sinceStart * 1000000L;
+		PaintProbe.get().addListener(new StartupProbe(jvmStart, "exit".equals(value)));
+	}
+
+	@Override
+	public void painted(String event, long start, long painted) {
+		if(PaintProbe.WINDOW.equals(event) && windowPainted < 0) {
+			windowPainted = painted;
+		} else if(PaintProbe.RESULTS.equals(event) && resultsPainted < 0) {
+			resultsPainted = painted;
+		}
+		// Both might have been painted at once, so only report when both are known
+		if(windowPainted >= 0 && resultsPainted >= 0) {
+			PaintProbe.get().removeListener(this);
+			System.out.println(String.format(Locale.ROOT, "startup: window %.1f ms, results %.1f ms",
+					(windowPainted - jvmStart) / 1e6, (resultsPainted - jvmStart) / 1e6));
+			System.out.flush();
+			if(exit) {
+				System.exit(0);
+			}
+		}
+	}
+
+}
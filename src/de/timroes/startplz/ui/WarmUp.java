@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Tim Roes <mail@timroes.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.startplz.ui;
+
+import de.timroes.startplz.Log;
+import de.timroes.startplz.PluginManager;
+import de.timroes.startplz.Result;
+import de.timroes.startplz.SearchResults;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up the search and rendering path, while the instance has been started
+ * hidden and nobody uses it yet. It replays a synthetic keystroke trace through
+ * {@link PluginManager#warmUp(java.lang.String)} and renders the first page of
+ * every search offscreen, until the JIT compiler has nothing left to do for it.
+ * That search runs the same plugin code as a real search, but leaves the
+ * metrics, the trace, the plugin health and the caches untouched and doesn't
+ * search plugins, that use the network. Rendering still loads the icons of
+ * the results, which is wanted, since they are cached for the real searches.
+ * The results are rendered with a {@link ResultPainter} owned by the warm-up,
+ * which paints the same way as the result list, but isn't a Swing component.
+ * So the warm-up never touches Swing outside of the event dispatch thread.
+ *
+ * The warm-up runs in a single thread with the lowest priority. After every
+ * step it sleeps long enough to use at most {@link #MAX_CPU_SHARE} of one core.
+ * It stops as soon as the window is shown for the first time.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class WarmUp {
+
+	/**
+	 * The share of one CPU core the warm-up may use.
+	 */
+	public final static double MAX_CPU_SHARE = 0.25;
+
+	/**
+	 * Words typed in the synthetic keystroke trace. They cover applications,
+	 * commands and calculations, so every plugin takes part.
+	 */
+	private final static String[] TRACE_WORDS = new String[] {
+		"firefox", "terminal", "settings", "files", "chromium", "text editor",
+		"refresh", "2+3*4", "sqrt(16)/2", "music", "calculator", "system monitor"
+	};
+
+	private final static int ROW_WIDTH = 450;
+	private final static int MIN_ROUNDS = 3;
+	private final static int MAX_ROUNDS = 40;
+	/**
+	 * If the JIT compiler spent less than this during a round, the hot
+	 * methods are considered compiled.
+	 */
+	private final static long STABLE_COMPILATION_TIME = 5;
+
+	private static volatile boolean cancelled;
+	private static Thread thread;
+
+	private WarmUp() { }
+
+	/**
+	 * Starts the warm-up in the background. This does nothing, if it already
+	 * ran or has been cancelled.
+	 */
+	public static synchronized void start() {
+		if(thread != null || cancelled) {
+			return;
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					warmUp();
+				} catch(RuntimeException ex) {
+					Log.w("Warm-up failed.", ex);
+				}
+			}
+		}, "WarmUp");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops the warm-up. The current step will still be finished.
+	 */
+	public static void cancel() {
+		cancelled = true;
+	}
+
+	private static void warmUp() {
+
+		CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+		boolean canMonitor = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+
+		ResultPainter painter = new ResultPainter();
+		BufferedImage page = new BufferedImage(ROW_WIDTH,
+				SearchResults.PAGE_SIZE * painter.getCellHeight(), BufferedImage.TYPE_INT_ARGB);
+		List<String> trace = createTrace();
+
+		long start = System.nanoTime();
+		long lastCompilationTime = canMonitor ? compiler.getTotalCompilationTime() : 0;
+		int round;
+		for(round = 1; round <= MAX_ROUNDS && !cancelled; round++) {
+			for(String query : trace) {
+				if(cancelled) {
+					break;
+				}
+				long stepStart = System.nanoTime();
+				SearchResults results = PluginManager.get().warmUp(query);
+				if(results.getPageCount() > 0) {
+					render(painter, results.getPage(0), page);
+				}
+				throttle(System.nanoTime() - stepStart);
+			}
+
+			if(canMonitor) {
+				long compilationTime = compiler.getTotalCompilationTime();
+				boolean stable = compilationTime - lastCompilationTime < STABLE_COMPILATION_TIME;
+				lastCompilationTime = compilationTime;
+				if(stable && round >= MIN_ROUNDS) {
+					break;
+				}
+			} else if(round >= MIN_ROUNDS) {
+				// Without monitoring, a few rounds are the best guess we have.
+				break;
+			}
+		}
+
+		Log.d("Warm-up %s after %d rounds in %d ms.", cancelled ? "cancelled" : "finished",
+				Math.min(round, MAX_ROUNDS), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+	}
+
+	/**
+	 * Creates the keystroke trace: every word is typed character by character,
+	 * a typo is made and corrected again.
+	 *
+	 * @return The queries in the order they would be searched for.
+	 */
+	private static List<String> createTrace() {
+		List<String> trace = new ArrayList<String>();
+		for(String word : TRACE_WORDS) {
+			for(int i = 1; i <= word.length(); i++) {
+				trace.add(word.substring(0, i));
+			}
+			trace.add(word + "x");
+			trace.add(word);
+		}
+		return trace;
+	}
+
+	private static void render(ResultPainter painter, List<Result> rows, BufferedImage page) {
+		Graphics2D g = page.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, page.getWidth(), page.getHeight());
+			painter.renderPage(g, rows, page.getWidth());
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Sleeps long enough, that the step took at most {@link #MAX_CPU_SHARE}
+	 * of the time.
+	 *
+	 * @param workTime The time the step has been working in nanoseconds.
+	 */
+	private static void throttle(long workTime) {
+		long sleep = (long)(workTime * (1 - MAX_CPU_SHARE) / MAX_CPU_SHARE);
+		try {
+			TimeUnit.NANOSECONDS.sleep(Math.max(sleep, TimeUnit.MILLISECONDS.toNanos(1)));
+		} catch(InterruptedException ex) {
+			cancelled = true;
+		}
+	}
+
+}
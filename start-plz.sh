@@ -0,0 +1,18 @@
+#!/bin/sh
+#
+# Starts start-plz from the directory this script has been installed to.
+#
+# If a class data sharing archive has been created with "ant cds-archive", it
+# is used to map the already parsed classes of the last training run instead
+# of loading them again. If the archive doesn't fit the jar anymore (e.g. the
+# jar has been rebuilt), the JVM silently ignores it.
+#
+DIR=$(dirname "$(readlink -f "$0")")
+ARCHIVE="$DIR/start-plz.jsa"
+
+if [ -f "$ARCHIVE" ]; then
+	exec java -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto -Xlog:cds=off -Xlog:cds+dynamic=off \
+		-jar "$DIR/start-plz.jar" "$@"
+else
+	exec java -jar "$DIR/start-plz.jar" "$@"
+fi